@@ -39,6 +39,17 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("stmt_expr", stmt.expression);
     }
 
+    @Override
+    public String visitForStmt(Stmt.For stmt)
+    {
+        String initializer = stmt.initializer != null ? parenthesizeStmts("initializer", stmt.initializer) : "(initializer)";
+        String condition = stmt.condition != null ? parenthesize("condition", stmt.condition) : "(condition)";
+        String increment = stmt.increment != null ? parenthesize("increment", stmt.increment) : "(increment)";
+        String body = parenthesizeStmts("body", stmt.body);
+
+        return parenthesizeStmts("stmt_for " + initializer + " " + condition + " " + increment + " " + body);
+    }
+
     @Override
     public String visitFunctionStmt(Stmt.Function stmt)
     {
@@ -59,6 +70,18 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesizeStmts("stmt_if " + condition + " " + thenBranch + " " + elseBranch);
     }
 
+    @Override
+    public String visitImportStmt(Stmt.Import stmt)
+    {
+        return parenthesizeStmts("stmt_import '" + stmt.path.literal + "'");
+    }
+
+    @Override
+    public String visitProbeStmt(Stmt.Probe stmt)
+    {
+        return stmt.statement.accept(this);
+    }
+
     @Override
     public String visitPrintStmt(Stmt.Print stmt)
     {
@@ -116,18 +139,42 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("call " + expr.callee.accept(this) + " with ", expr.arguments);
     }
 
+    @Override
+    public String visitCompareLocalConstExpr(Expr.CompareLocalConst expr)
+    {
+        return expr.comparison.accept(this);
+    }
+
     @Override
     public String visitGetExpr(Expr.Get expr)
     {
         return parenthesize("get property '" + expr.name.lexeme + "' from object ", expr.object);
     }
 
+    @Override
+    public String visitGetThisFieldExpr(Expr.GetThisField expr)
+    {
+        return expr.get.accept(this);
+    }
+
     @Override
     public String visitGroupingExpr(Expr.Grouping expr)
     {
         return parenthesize("group", expr.expressions);
     }
 
+    @Override
+    public String visitIncrementLocalExpr(Expr.IncrementLocal expr)
+    {
+        return expr.assignment.accept(this);
+    }
+
+    @Override
+    public String visitInvokeMethodExpr(Expr.InvokeMethod expr)
+    {
+        return expr.call.accept(this);
+    }
+
     @Override
     public String visitLiteralExpr(Expr.Literal expr)
     {
@@ -143,6 +190,12 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
     }
 
+    @Override
+    public String visitProbeExpr(Expr.Probe expr)
+    {
+        return print(expr.expression);
+    }
+
     @Override
     public String visitSetExpr(Expr.Set expr) {
         String obj = parenthesize("", expr.object);
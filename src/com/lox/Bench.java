@@ -0,0 +1,224 @@
+package com.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// Прогон корпуса bench/: каждый *.lox запускается на каждом движке
+// (warmup + измеряемые итерации), вывод сверяется с *.expected.
+//
+class Bench {
+    enum Engine {
+        TREE_WALKER("tree-walker") {
+            @Override
+            boolean run(LoxEngine engine, String source, PrintStream out)
+            {
+                CompiledScript script = engine.compile(source);
+                if (script.hasErrors()) {
+                    System.err.println(script.errors());
+                    return false;
+                }
+
+                LoxContext context = engine.newContext(out);
+                if (!context.run(script)) {
+                    System.err.println(context.errors());
+                    return false;
+                }
+                return true;
+            }
+        };
+
+        Engine(String title)
+        {
+            this.title = title;
+        }
+
+        abstract boolean run(LoxEngine engine, String source, PrintStream out);
+
+        final String title;
+    }
+
+    static int run(String[] args) throws IOException
+    {
+        Path directory = Paths.get("bench");
+        int warmup = 3;
+        int iterations = 10;
+
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--warmup") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--iterations") && i + 1 < args.length) {
+                iterations = Integer.parseInt(args[++i]);
+            } else if (!args[i].startsWith("--")) {
+                directory = Paths.get(args[i]);
+            } else {
+                System.err.println("Unknown bench option '" + args[i] + "'.");
+                return 64;
+            }
+        }
+        if (iterations < 1) {
+            System.err.println("Bench needs at least one measured iteration.");
+            return 64;
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.lox")) {
+            for (Path script : stream) {
+                scripts.add(script);
+            }
+        }
+        scripts.sort(null);
+        if (scripts.isEmpty()) {
+            System.err.println("No benchmarks found in '" + directory + "'.");
+            return 64;
+        }
+
+        System.out.println(String.format("%-20s %-12s %12s %12s %14s  %s",
+            "benchmark", "engine", "median ms", "p99 ms", "alloc KB/run", "output"));
+
+        boolean failed = false;
+        for (Path script : scripts) {
+            String name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            Path expectedPath = script.resolveSibling(name + ".expected");
+            String expected = Files.exists(expectedPath)
+                ? new String(Files.readAllBytes(expectedPath), StandardCharsets.UTF_8)
+                : null;
+
+            for (Engine engine : Engine.values()) {
+                Result result = measure(engine, source, warmup, iterations);
+
+                String verdict;
+                if (result.error) {
+                    verdict = "ERROR";
+                    failed = true;
+                } else if (expected == null) {
+                    verdict = "no " + expectedPath.getFileName();
+                    failed = true;
+                } else if (!result.output.equals(expected)) {
+                    verdict = "DIVERGED";
+                    failed = true;
+                } else {
+                    verdict = "ok";
+                }
+
+                System.out.println(String.format("%-20s %-12s %12.3f %12.3f %14s  %s",
+                    name, engine.title,
+                    percentile(result.nanos, 50) / 1e6,
+                    percentile(result.nanos, 99) / 1e6,
+                    result.allocatedBytes == null ? "n/a" : String.valueOf(percentile(result.allocatedBytes, 50) / 1024),
+                    verdict));
+
+                if (verdict.equals("DIVERGED")) {
+                    System.out.println("    expected:");
+                    System.out.print(indent(expected));
+                    System.out.println("    actual:");
+                    System.out.print(indent(result.output));
+                }
+            }
+        }
+
+        return failed ? 1 : 0;
+    }
+
+    private static class Result {
+        String output;
+        boolean error;
+        final long[] nanos;
+        final long[] allocatedBytes;
+
+        Result(int iterations, boolean allocationsSupported)
+        {
+            nanos = new long[iterations];
+            allocatedBytes = allocationsSupported ? new long[iterations] : null;
+        }
+    }
+
+    private static Result measure(Engine engine, String source, int warmup, int iterations)
+    {
+        Result result = new Result(iterations, allocationCounter() != null);
+        LoxEngine loxEngine = new LoxEngine();
+
+        for (int i = -warmup; i < iterations; ++i) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(buffer, false);
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            boolean ok = engine.run(loxEngine, source, out);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+
+            out.flush();
+            if (!ok) {
+                result.error = true;
+            }
+
+            // результаты прогрева не учитываются, но вывод проверяется на каждой итерации
+            String output = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            if (result.output != null && !result.output.equals(output)) {
+                result.error = true;
+            }
+            result.output = output;
+
+            if (i >= 0) {
+                result.nanos[i] = elapsed;
+                if (result.allocatedBytes != null) {
+                    result.allocatedBytes[i] = allocated;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static long percentile(long[] samples, int percent)
+    {
+        if (samples == null) {
+            return -1;
+        }
+
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    private static String indent(String text)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String line : text.split("\n", -1)) {
+            if (!line.isEmpty()) {
+                builder.append("        ").append(line).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter()
+    {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes()
+    {
+        com.sun.management.ThreadMXBean bean = allocationCounter();
+        return bean != null ? bean.getCurrentThreadAllocatedBytes() : 0;
+    }
+}
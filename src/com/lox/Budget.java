@@ -0,0 +1,82 @@
+package com.lox;
+
+//
+// Лимиты выполнения одного вызова LoxContext.run.
+//
+// steps     - итерации циклов плюс вызовы функций;
+// callDepth - глубина вложенных вызовов Lox;
+// instances - созданные экземпляры классов и запущенные spawn функции;
+// stackSize - байт стека для выполнения: если задан, run выполняет скрипт
+//             в отдельном потоке с таким стеком, и глубина рекурсии
+//             ограничена только им (0 - стек вызывающего потока).
+//
+// Лимиты общие для всех потоков запуска: функции spawn и parallelMap
+// расходуют те же steps и instances, что и основной скрипт.
+//
+// Превышение лимита - обычная ошибка выполнения со строкой, на которой
+// оно случилось. Проверки стоят только на обратных переходах циклов и вызовах.
+//
+public final class Budget {
+    public static final Budget UNLIMITED = new Budget(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, 0);
+
+    private Budget(long steps, int callDepth, long instances, long stackSize)
+    {
+        this.steps = steps;
+        this.callDepth = callDepth;
+        this.instances = instances;
+        this.stackSize = stackSize;
+    }
+
+    public Budget withSteps(long steps)
+    {
+        return new Budget(checked(steps, "steps"), callDepth, instances, stackSize);
+    }
+
+    public Budget withCallDepth(int callDepth)
+    {
+        return new Budget(steps, (int)checked(callDepth, "callDepth"), instances, stackSize);
+    }
+
+    public Budget withInstances(long instances)
+    {
+        return new Budget(steps, callDepth, checked(instances, "instances"), stackSize);
+    }
+
+    public Budget withStackSize(long stackSize)
+    {
+        return new Budget(steps, callDepth, instances, checked(stackSize, "stackSize"));
+    }
+
+    private static long checked(long limit, String name)
+    {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Budget '" + name + "' must not be negative.");
+        }
+        return limit;
+    }
+
+    public long steps()
+    {
+        return steps;
+    }
+
+    public int callDepth()
+    {
+        return callDepth;
+    }
+
+    public long instances()
+    {
+        return instances;
+    }
+
+    public long stackSize()
+    {
+        return stackSize;
+    }
+
+    final long steps;
+    final int callDepth;
+    final long instances;
+    final long stackSize;
+}
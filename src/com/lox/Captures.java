@@ -0,0 +1,32 @@
+package com.lox;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+//
+// Результат анализа замыкания функции (заполняет Resolver).
+//
+// names.get(depth) - имена, которые функция (вместе с вложенными в неё)
+// берёт из окружения на расстоянии depth от окружения, в котором она создаётся;
+// только они попадают в замыкание. parameters[i] - захвачен ли i-й параметр
+// вложенными функциями (тогда он хранится в Upvalue).
+//
+@SuppressWarnings("serial")
+class Captures implements Serializable {
+    static final Captures NONE = new Captures(Collections.<List<String>>emptyList(), new boolean[0]);
+
+    Captures(List<List<String>> names, boolean[] parameters)
+    {
+        this.names = names;
+        this.parameters = parameters;
+    }
+
+    boolean isParameterCaptured(int index)
+    {
+        return index < parameters.length && parameters[index];
+    }
+
+    final List<List<String>> names;
+    private final boolean[] parameters;
+}
@@ -0,0 +1,44 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// Разобранный и разрешённый скрипт. После создания не меняется,
+// поэтому его можно выполнять одновременно в нескольких контекстах.
+//
+public final class CompiledScript {
+    CompiledScript(List<Stmt> statements, List<LoxError> errors)
+    {
+        this(statements, errors, Collections.<String, Module>emptyMap(), null);
+    }
+
+    CompiledScript(List<Stmt> statements, List<LoxError> errors, Map<String, Module> modules, String path)
+    {
+        this.path = path;
+        // изменяемый только для Instrumentation, наружу не отдаётся
+        this.statements = new ArrayList<>(statements);
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.modules = Collections.unmodifiableMap(new HashMap<>(modules));
+    }
+
+    public boolean hasErrors()
+    {
+        return !errors.isEmpty();
+    }
+
+    public List<LoxError> errors()
+    {
+        return errors;
+    }
+
+    final List<Stmt> statements;
+    // все модули, достижимые через import, по абсолютному пути
+    final Map<String, Module> modules;
+    // абсолютный путь файла скрипта, null для исходника из строки
+    final String path;
+    private final List<LoxError> errors;
+}
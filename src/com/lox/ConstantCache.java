@@ -0,0 +1,64 @@
+package com.lox;
+
+import java.util.Arrays;
+
+//
+// Значения глобальных переменных, которым Resolver не нашёл ни одного
+// присваивания в своём скрипте (Expr.Variable.constant): скорее всего это
+// объявление функции, класса или константа.
+//
+// Кэш у каждого интерпретатора свой (один поток одного контекста), а не в
+// узле: дерево общее для всех контекстов, выполняющих скрипт. Значение
+// лежит по номеру ячейки и действительно, пока не сменилась версия globals.
+//
+// Предположение может нарушить код, которого Resolver не видел (другой
+// модуль, следующая строка REPL, повторное объявление). Такая запись
+// в ячейку, от которой кто-то уже зависит, увеличивает версию globals
+// (Environment.invalidateConstants), и весь кэш перечитывается.
+//
+final class ConstantCache {
+    // ещё не прочитанное значение; nil хранится как null
+    private static final Object UNKNOWN = new Object();
+
+    ConstantCache(Environment globals)
+    {
+        this.globals = globals;
+        this.version = globals.constantsVersion();
+    }
+
+    Object get(int slot, Token name)
+    {
+        Object[] values = this.values;
+        if (slot < values.length && version == globals.constantsVersion()) {
+            Object value = values[slot];
+            if (value != UNKNOWN) {
+                return value;
+            }
+        }
+        return load(slot, name);
+    }
+
+    private Object load(int slot, Token name)
+    {
+        // порядок важен: сначала пометка ячейки, потом версия, потом значение
+        globals.speculateGlobal(slot, name);
+        int version = globals.constantsVersion();
+        Object value = globals.getGlobal(slot, name);
+
+        if (version != this.version) {
+            Arrays.fill(values, UNKNOWN);
+            this.version = version;
+        }
+        if (slot >= values.length) {
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(length * 2, slot + 1));
+            Arrays.fill(values, length, values.length, UNKNOWN);
+        }
+        values[slot] = value;
+        return value;
+    }
+
+    private final Environment globals;
+    private Object[] values = new Object[0];
+    private int version;
+}
@@ -0,0 +1,169 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+//
+// jlox --coverage: покрытие строк и ветвлений в формате LCOV.
+//
+// Каждая инструкция и каждое ветвление (условие if, левый операнд and/or)
+// получает при подключении плотный номер ProbeSite.id, счётчики лежат
+// в long[] по два на место: для инструкции - выполнения, для ветвления -
+// истинное и ложное значение условия. Из нескольких потоков счётчики
+// обновляются без синхронизации, так что числа там приблизительные.
+//
+final class Coverage implements Instrument {
+    private Coverage(Set<Expr> branches)
+    {
+        this.branches = branches;
+    }
+
+    static Coverage attach(CompiledScript script)
+    {
+        Set<Expr> branches = Collections.newSetFromMap(new IdentityHashMap<>());
+        BranchCollector collector = new BranchCollector(branches);
+        collector.visit(script.statements);
+        for (Module module : script.modules.values()) {
+            collector.visit(module.statements);
+        }
+
+        Coverage coverage = new Coverage(branches);
+        coverage.instrumentation = Instrumentation.attach(script, coverage);
+        coverage.counts = new long[2 * coverage.instrumentation.sites().size()];
+        return coverage;
+    }
+
+    @Override
+    public boolean probes(Stmt stmt)
+    {
+        return !(stmt instanceof Stmt.Block);
+    }
+
+    @Override
+    public boolean probes(Expr expr)
+    {
+        return branches.contains(expr);
+    }
+
+    @Override
+    public void enter(ProbeSite site)
+    {
+        if (site.node instanceof Stmt) {
+            ++counts[2 * site.id];
+        }
+    }
+
+    @Override
+    public void exit(ProbeSite site, Object value)
+    {
+        if (site.node instanceof Expr) {
+            boolean truthy = value != null && !Boolean.FALSE.equals(value);
+            ++counts[2 * site.id + (truthy ? 0 : 1)];
+        }
+    }
+
+    //
+    // scriptPath - имя файла для мест самого скрипта (ProbeSite.module == null).
+    //
+    void writeLcov(Writer writer, String scriptPath) throws IOException
+    {
+        Map<String, List<ProbeSite>> files = new LinkedHashMap<>();
+        for (ProbeSite site : instrumentation.sites()) {
+            if (site.line == 0) {
+                // узел без токенов на верхнем уровне, LCOV строки 0 не принимает
+                continue;
+            }
+            String file = site.module != null ? site.module : scriptPath;
+            files.computeIfAbsent(file, key -> new ArrayList<>()).add(site);
+        }
+
+        PrintWriter out = new PrintWriter(writer);
+        out.println("TN:");
+        for (Map.Entry<String, List<ProbeSite>> file : files.entrySet()) {
+            out.println("SF:" + file.getKey());
+
+            Map<Integer, Long> lines = new TreeMap<>();
+            int branchesFound = 0;
+            int branchesHit = 0;
+            for (ProbeSite site : file.getValue()) {
+                long first = counts[2 * site.id];
+                long second = counts[2 * site.id + 1];
+                if (site.node instanceof Stmt) {
+                    lines.merge(site.line, first, Math::max);
+                    continue;
+                }
+
+                boolean evaluated = first + second > 0;
+                out.println("BRDA:" + site.line + "," + site.id + ",0," + (evaluated ? String.valueOf(first) : "-"));
+                out.println("BRDA:" + site.line + "," + site.id + ",1," + (evaluated ? String.valueOf(second) : "-"));
+                branchesFound += 2;
+                branchesHit += (first > 0 ? 1 : 0) + (second > 0 ? 1 : 0);
+            }
+            out.println("BRF:" + branchesFound);
+            out.println("BRH:" + branchesHit);
+
+            int linesHit = 0;
+            for (Map.Entry<Integer, Long> line : lines.entrySet()) {
+                out.println("DA:" + line.getKey() + "," + line.getValue());
+                linesHit += line.getValue() > 0 ? 1 : 0;
+            }
+            out.println("LF:" + lines.size());
+            out.println("LH:" + linesHit);
+            out.println("end_of_record");
+        }
+        out.flush();
+    }
+
+    //
+    // Условия if и левые операнды and/or. Собираются до подключения:
+    // Instrumentation спрашивает про узел, не зная его родителя.
+    //
+    private static final class BranchCollector implements NodeRewriter {
+        BranchCollector(Set<Expr> branches)
+        {
+            this.branches = branches;
+        }
+
+        void visit(List<Stmt> statements)
+        {
+            for (Stmt stmt : statements) {
+                rewrite(stmt);
+            }
+        }
+
+        @Override
+        public Expr rewrite(Expr expr)
+        {
+            if (expr instanceof Expr.Logical) {
+                branches.add(((Expr.Logical)expr).left);
+            }
+            expr.replaceChildren(this);
+            return expr;
+        }
+
+        @Override
+        public Stmt rewrite(Stmt stmt)
+        {
+            if (stmt instanceof Stmt.If) {
+                branches.add(((Stmt.If)stmt).condition);
+            }
+            stmt.replaceChildren(this);
+            return stmt;
+        }
+
+        private final Set<Expr> branches;
+    }
+
+    private final Set<Expr> branches;
+    private Instrumentation instrumentation;
+    private long[] counts;
+}
@@ -1,24 +1,156 @@
 package com.lox;
 
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-public class Environment {
-    Environment()
+@SuppressWarnings("serial")
+public class Environment implements Serializable {
+    Environment(Environment enclosing)
     {
-        enclosing = null;
+        this.enclosing = enclosing;
+        this.values = new HashMap<>();
+        this.isGlobal = false;
+        this.slots = null;
     }
 
-    Environment(Environment enclosing)
+    private Environment(GlobalSlots slots)
     {
-        this.enclosing = enclosing;
+        this.enclosing = null;
+        this.values = null;
+        this.isGlobal = true;
+        this.slots = slots;
+        this.cells = new GlobalCell[64];
+    }
+
+    //
+    // Глобальные переменные общие для всех потоков интерпретатора, поэтому
+    // каждая лежит в своей ячейке Upvalue. Ячейки хранятся в массиве по
+    // номеру имени в slots движка, который Resolver записывает в узлы, так
+    // что чтение глобальной переменной - индекс в массиве без хеширования.
+    //
+    static Environment globals(GlobalSlots slots)
+    {
+        return new Environment(slots);
+    }
+
+    int globalSlot(String name)
+    {
+        return slots.slot(name);
+    }
+
+    int methodSite()
+    {
+        return slots.methodSite();
+    }
+
+    // вызывается, когда кадр возвращается в FrameStack
+    void clear()
+    {
+        values.clear();
+        enclosing = null;
     }
 
     void define(String name, Object value)
     {
+        if (isGlobal) {
+            defineGlobal(globalSlot(name), value instanceof Upvalue ? ((Upvalue)value).value : value);
+            return;
+        }
         values.put(name, value);
     }
 
+    //
+    // Новая ячейка публикуется записью в volatile cells; читатель, который
+    // её ещё не увидел, перепроверяет под блокировкой (definedCell).
+    //
+    private synchronized void defineGlobal(int slot, Object value)
+    {
+        GlobalCell[] cells = this.cells;
+        if (slot >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, slot + 1));
+        }
+        if (cells[slot] == null) {
+            cells[slot] = new GlobalCell(value);
+        } else {
+            cells[slot].value = value;
+            invalidateConstants(cells[slot]);
+        }
+        this.cells = cells;
+    }
+
+    Object getGlobal(int slot, Token name)
+    {
+        GlobalCell[] cells = this.cells;
+        GlobalCell cell = slot < cells.length ? cells[slot] : null;
+        return (cell != null ? cell : definedCell(slot, name)).value;
+    }
+
+    void assignGlobal(int slot, Token name, Object value)
+    {
+        GlobalCell[] cells = this.cells;
+        GlobalCell cell = slot < cells.length ? cells[slot] : null;
+        if (cell == null) {
+            cell = definedCell(slot, name);
+        }
+        cell.value = value;
+        invalidateConstants(cell);
+    }
+
+    //
+    // Предположение о неизменных глобальных (см. ConstantCache). Писатель
+    // сначала меняет значение, потом смотрит пометку; читатель сначала
+    // ставит пометку, потом читает версию и значение. Поэтому либо читатель
+    // увидит новое значение, либо писатель увидит пометку и сменит версию.
+    //
+    void speculateGlobal(int slot, Token name)
+    {
+        GlobalCell[] cells = this.cells;
+        GlobalCell cell = slot < cells.length ? cells[slot] : null;
+        (cell != null ? cell : definedCell(slot, name)).speculated = true;
+    }
+
+    // определённые глобальные переменные в порядке номеров ячеек
+    Map<String, Object> globalValues()
+    {
+        GlobalCell[] cells = this.cells;
+        String[] names = slots.names(cells.length);
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int slot = 0; slot < cells.length; ++slot) {
+            if (cells[slot] != null) {
+                values.put(names[slot], cells[slot].value);
+            }
+        }
+        return values;
+    }
+
+    int constantsVersion()
+    {
+        return constantsVersion;
+    }
+
+    private void invalidateConstants(GlobalCell cell)
+    {
+        if (cell.speculated) {
+            synchronized (this) {
+                ++constantsVersion;
+            }
+        }
+    }
+
+    private synchronized GlobalCell definedCell(int slot, Token name)
+    {
+        GlobalCell cell = slot < cells.length ? cells[slot] : null;
+        if (cell == null) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return cell;
+    }
+
     private Environment ancestor(int depth)
     {
         Environment env = this;
@@ -32,8 +164,12 @@ public class Environment {
 
     void assign(Token name, Object value)
     {
+        if (isGlobal) {
+            assignGlobal(globalSlot(name.lexeme), name, value);
+            return;
+        }
         if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            put(name.lexeme, value);
             return;
         }
 
@@ -47,13 +183,26 @@ public class Environment {
 
     void assignAt(int depth, Token name, Object value)
     {
-        ancestor(depth).values.put(name.lexeme, value);
+        ancestor(depth).put(name.lexeme, value);
+    }
+
+    private void put(String name, Object value)
+    {
+        Object current = values.get(name);
+        if (current instanceof Upvalue) {
+            ((Upvalue)current).value = value;
+        } else {
+            values.put(name, value);
+        }
     }
 
     Object get(Token name)
     {
+        if (isGlobal) {
+            return getGlobal(globalSlot(name.lexeme), name);
+        }
         if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+            return unwrap(values.get(name.lexeme));
         }
 
         if (enclosing != null) {
@@ -70,9 +219,49 @@ public class Environment {
 
     Object getAt(int depth, String name)
     {
-        return ancestor(depth).values.get(name);
+        return unwrap(ancestor(depth).values.get(name));
+    }
+
+    private static Object unwrap(Object value)
+    {
+        return value instanceof Upvalue ? ((Upvalue)value).value : value;
     }
 
-    private final Map<String, Object> values = new HashMap<>();
-    final Environment enclosing;
+    //
+    // Окружение для замыкания: та же глубина цепочки, но на каждом уровне
+    // только захваченные имена (names.get(depth)). Захваченные переменные
+    // лежат в Upvalue, поэтому замыкание разделяет их с исходным окружением,
+    // а всё остальное не удерживается и освобождается вместе с кадром.
+    //
+    Environment capture(List<List<String>> names)
+    {
+        Environment captured = null;
+        for (int depth = names.size() - 1; depth >= 0; --depth) {
+            Environment source = ancestor(depth);
+            captured = new Environment(captured);
+            for (String name : names.get(depth)) {
+                captured.values.put(name, source.values.get(name));
+            }
+        }
+        return captured;
+    }
+
+    // у globals values == null, переменные лежат в cells
+    private final Map<String, Object> values;
+    private final boolean isGlobal;
+    // у globals - номера ячеек движка, у остальных null
+    private final transient GlobalSlots slots;
+    private volatile GlobalCell[] cells;
+    private volatile int constantsVersion = 0;
+
+    private static final class GlobalCell extends Upvalue {
+        GlobalCell(Object value)
+        {
+            super(value);
+        }
+
+        // от значения зависит какой-нибудь ConstantCache
+        volatile boolean speculated = false;
+    }
+    Environment enclosing;
 }
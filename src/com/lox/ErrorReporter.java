@@ -0,0 +1,27 @@
+package com.lox;
+
+//
+// Куда Scanner, Parser, Resolver и Interpreter сообщают об ошибках.
+//
+interface ErrorReporter {
+    void report(LoxError error);
+
+    default void error(int line, String message)
+    {
+        report(new LoxError(LoxError.Kind.SYNTAX, line, "", message));
+    }
+
+    default void error(Token token, String message)
+    {
+        if (token.type == TokenType.EOF) {
+            report(new LoxError(LoxError.Kind.SYNTAX, token.line, "at end", message));
+        } else {
+            report(new LoxError(LoxError.Kind.SYNTAX, token.line, "at '" + token.lexeme + "'", message));
+        }
+    }
+
+    default void runtimeError(RuntimeError error)
+    {
+        report(new LoxError(LoxError.Kind.RUNTIME, error.token.line, "", error.getMessage()));
+    }
+}
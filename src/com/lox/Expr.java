@@ -1,16 +1,23 @@
 package com.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr {
+@SuppressWarnings("serial")
+abstract class Expr implements Serializable {
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
         R visitBinaryExpr(Binary expr);
         R visitCallExpr(Call expr);
+        R visitCompareLocalConstExpr(CompareLocalConst expr);
         R visitGetExpr(Get expr);
+        R visitGetThisFieldExpr(GetThisField expr);
         R visitGroupingExpr(Grouping expr);
+        R visitIncrementLocalExpr(IncrementLocal expr);
+        R visitInvokeMethodExpr(InvokeMethod expr);
         R visitLiteralExpr(Literal expr);
         R visitLogicalExpr(Logical expr);
+        R visitProbeExpr(Probe expr);
         R visitSetExpr(Set expr);
         R visitSuperExpr(Super expr);
         R visitThisExpr(This expr);
@@ -25,11 +32,19 @@ abstract class Expr {
         }
 
         final Token name;
-        final Expr value;
+        Expr value;
+
+        // заполняет Resolver
+        int depth = -1;
+        int slot = -1;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitAssignExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (value != null) value = rewriter.rewrite(value);
+        }
     }
 
     static class Binary extends Expr {
@@ -39,13 +54,18 @@ abstract class Expr {
             this.right = right;
         }
 
-        final Expr left;
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (left != null) left = rewriter.rewrite(left);
+            if (right != null) right = rewriter.rewrite(right);
+        }
     }
 
     static class Call extends Expr {
@@ -55,13 +75,43 @@ abstract class Expr {
             this.arguments = arguments;
         }
 
-        final Expr callee;
+        Expr callee;
         final Token paren;
         final List<Expr> arguments;
 
+        // заполняет Resolver
+        int site = -1;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitCallExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (callee != null) callee = rewriter.rewrite(callee);
+            for (int i = 0; i < arguments.size(); ++i) arguments.set(i, rewriter.rewrite(arguments.get(i)));
+        }
+    }
+
+    static class CompareLocalConst extends Expr {
+        CompareLocalConst(Expr.Binary comparison, Token name, int depth, double constant) {
+            this.comparison = comparison;
+            this.name = name;
+            this.depth = depth;
+            this.constant = constant;
+        }
+
+        final Expr.Binary comparison;
+        final Token name;
+        final int depth;
+        final double constant;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitCompareLocalConstExpr(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (comparison != null) comparison.replaceChildren(rewriter);
+        }
     }
 
     static class Get extends Expr {
@@ -70,12 +120,34 @@ abstract class Expr {
             this.name = name;
         }
 
-        final Expr object;
+        Expr object;
         final Token name;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitGetExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (object != null) object = rewriter.rewrite(object);
+        }
+    }
+
+    static class GetThisField extends Expr {
+        GetThisField(Expr.Get get, int depth) {
+            this.get = get;
+            this.depth = depth;
+        }
+
+        final Expr.Get get;
+        final int depth;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitGetThisFieldExpr(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (get != null) get.replaceChildren(rewriter);
+        }
     }
 
     static class Grouping extends Expr {
@@ -88,6 +160,44 @@ abstract class Expr {
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            for (int i = 0; i < expressions.size(); ++i) expressions.set(i, rewriter.rewrite(expressions.get(i)));
+        }
+    }
+
+    static class IncrementLocal extends Expr {
+        IncrementLocal(Expr.Assign assignment, double delta) {
+            this.assignment = assignment;
+            this.delta = delta;
+        }
+
+        final Expr.Assign assignment;
+        final double delta;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitIncrementLocalExpr(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (assignment != null) assignment.replaceChildren(rewriter);
+        }
+    }
+
+    static class InvokeMethod extends Expr {
+        InvokeMethod(Expr.Call call) {
+            this.call = call;
+        }
+
+        final Expr.Call call;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitInvokeMethodExpr(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (call != null) call.replaceChildren(rewriter);
+        }
     }
 
     static class Literal extends Expr {
@@ -100,6 +210,9 @@ abstract class Expr {
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+        }
     }
 
     static class Logical extends Expr {
@@ -109,13 +222,36 @@ abstract class Expr {
             this.right = right;
         }
 
-        final Expr left;
+        Expr left;
         final Token operator;
-        final Expr right;
+        Expr right;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (left != null) left = rewriter.rewrite(left);
+            if (right != null) right = rewriter.rewrite(right);
+        }
+    }
+
+    static class Probe extends Expr {
+        Probe(Expr expression, ProbeSite site) {
+            this.expression = expression;
+            this.site = site;
+        }
+
+        Expr expression;
+        final ProbeSite site;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitProbeExpr(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (expression != null) expression = rewriter.rewrite(expression);
+        }
     }
 
     static class Set extends Expr {
@@ -125,13 +261,18 @@ abstract class Expr {
             this.value = value;
         }
 
-        final Expr object;
+        Expr object;
         final Token name;
-        final Expr value;
+        Expr value;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitSetExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (object != null) object = rewriter.rewrite(object);
+            if (value != null) value = rewriter.rewrite(value);
+        }
     }
 
     static class Super extends Expr {
@@ -143,9 +284,15 @@ abstract class Expr {
         final Token keyword;
         final Token method;
 
+        // заполняет Resolver
+        int depth = -1;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitSuperExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+        }
     }
 
     static class This extends Expr {
@@ -155,9 +302,15 @@ abstract class Expr {
 
         final Token keyword;
 
+        // заполняет Resolver
+        int depth = -1;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitThisExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+        }
     }
 
     static class Unary extends Expr {
@@ -167,11 +320,15 @@ abstract class Expr {
         }
 
         final Token operator;
-        final Expr right;
+        Expr right;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (right != null) right = rewriter.rewrite(right);
+        }
     }
 
     static class Variable extends Expr {
@@ -181,10 +338,20 @@ abstract class Expr {
 
         final Token name;
 
+        // заполняет Resolver
+        int depth = -1;
+        int slot = -1;
+        boolean constant = false;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitVariableExpr(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+        }
     }
 
     abstract <R> R accept(Visitor<R> visitor);
+
+    abstract void replaceChildren(NodeRewriter rewriter);
 }
@@ -0,0 +1,44 @@
+package com.lox;
+
+import java.util.Arrays;
+
+//
+// Окружения вызовов и блоков одного интерпретатора, переиспользуемые по стеку.
+//
+// Кадр никогда не переживает свой вызов: замыкание копирует себе только
+// ячейки захваченных переменных (Environment.capture), а не сам кадр.
+// Это касается и 'this': при вызове через MethodCache и при конструировании
+// (LoxFunction.bindFrame) окружение с 'this' - тоже кадр из стека, и
+// функция, созданная в методе, получает значение 'this' копией, а не
+// ссылку на этот кадр. Отдельно (bind) создаются только окружения 'this'
+// методов, взятых как значение, и окружение 'super'. Поэтому при выходе
+// кадр очищается и достаётся следующему вызову на той же глубине вместо
+// нового Environment.
+//
+final class FrameStack {
+    Environment push(Environment enclosing)
+    {
+        if (top == frames.length) {
+            frames = Arrays.copyOf(frames, frames.length * 2);
+        }
+
+        Environment frame = frames[top];
+        if (frame == null) {
+            frame = new Environment(enclosing);
+            frames[top] = frame;
+        } else {
+            frame.enclosing = enclosing;
+        }
+        ++top;
+        return frame;
+    }
+
+    // кадры освобождаются строго в обратном порядке
+    void pop()
+    {
+        frames[--top].clear();
+    }
+
+    private Environment[] frames = new Environment[64];
+    private int top = 0;
+}
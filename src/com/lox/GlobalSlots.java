@@ -0,0 +1,43 @@
+package com.lox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//
+// Номера ячеек глобальных переменных (см. Environment.globals).
+//
+// Таблица своя у каждого LoxEngine: Resolver записывает номера в узлы
+// скриптов движка, а globals его контекстов хранят ячейки по тем же номерам.
+// Поэтому массив ячеек покрывает только имена из скриптов этого движка.
+//
+// Там же нумеруются места вызова методов для MethodCache: номер должен быть
+// уникален среди всех скриптов и модулей, которые выполняет один контекст.
+//
+final class GlobalSlots {
+    int slot(String name)
+    {
+        return slots.computeIfAbsent(name, key -> next.getAndIncrement());
+    }
+
+    int methodSite()
+    {
+        return sites.getAndIncrement();
+    }
+
+    // имена по номерам; null для номеров, которых ещё нет
+    String[] names(int length)
+    {
+        String[] names = new String[length];
+        for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+            if (slot.getValue() < length) {
+                names[slot.getValue()] = slot.getKey();
+            }
+        }
+        return names;
+    }
+
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger sites = new AtomicInteger();
+}
@@ -0,0 +1,33 @@
+package com.lox;
+
+//
+// Инструмент (трассировка, отладчик, покрытие), который подключается
+// к скомпилированному скрипту через Instrumentation.attach.
+//
+// Выбранные узлы оборачиваются в Probe, и интерпретатор вызывает enter
+// перед их выполнением и exit после нормального завершения. Если выполнение
+// узла прервано исключением (ошибка, return), exit не вызывается.
+//
+interface Instrument {
+    default boolean probes(Stmt stmt)
+    {
+        return false;
+    }
+
+    default boolean probes(Expr expr)
+    {
+        return false;
+    }
+
+    // вызывается при подключении для каждого нового места
+    default void attached(ProbeSite site)
+    {
+    }
+
+    void enter(ProbeSite site);
+
+    // value - значение выражения, для инструкций null
+    default void exit(ProbeSite site, Object value)
+    {
+    }
+}
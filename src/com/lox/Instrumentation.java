@@ -0,0 +1,149 @@
+package com.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//
+// Подключение инструментов к дереву скрипта.
+//
+// Пока инструмент не подключён, дерево то же, что после Resolver, и
+// интерпретатор не делает никаких лишних проверок. attach оборачивает
+// выбранные инструментом узлы в Expr.Probe/Stmt.Probe (во всём скрипте
+// и его модулях), detach возвращает исходные узлы. Несколько инструментов
+// можно подключать одновременно, их Probe вкладываются друг в друга.
+//
+// Дерево общее для всех контекстов, выполняющих скрипт, поэтому
+// инструмент видят все они. Подключать и отключать лучше, пока скрипт
+// не выполняется.
+//
+final class Instrumentation {
+    private Instrumentation(CompiledScript script, Instrument instrument)
+    {
+        this.script = script;
+        this.instrument = instrument;
+    }
+
+    static Instrumentation attach(CompiledScript script, Instrument instrument)
+    {
+        Instrumentation instrumentation = new Instrumentation(script, instrument);
+        Attach attach = new Attach(instrument, instrumentation.sites);
+        rewrite(script.statements, attach);
+        for (Module module : script.modules.values()) {
+            attach.module = module.path;
+            rewrite(module.statements, attach);
+        }
+        return instrumentation;
+    }
+
+    void detach()
+    {
+        Detach detach = new Detach(instrument);
+        rewrite(script.statements, detach);
+        for (Module module : script.modules.values()) {
+            rewrite(module.statements, detach);
+        }
+    }
+
+    List<ProbeSite> sites()
+    {
+        return Collections.unmodifiableList(sites);
+    }
+
+    private static void rewrite(List<Stmt> statements, NodeRewriter rewriter)
+    {
+        for (int i = 0; i < statements.size(); ++i) {
+            statements.set(i, rewriter.rewrite(statements.get(i)));
+        }
+    }
+
+    private static final class Attach implements NodeRewriter {
+        Attach(Instrument instrument, List<ProbeSite> sites)
+        {
+            this.instrument = instrument;
+            this.sites = sites;
+        }
+
+        @Override
+        public Expr rewrite(Expr expr)
+        {
+            int enclosingLine = line;
+            line = line(NodeLine.of(expr));
+            expr.replaceChildren(this);
+
+            Expr result = expr;
+            if (!(expr instanceof Expr.Probe) && instrument.probes(expr)) {
+                result = new Expr.Probe(expr, site(expr));
+            }
+            line = enclosingLine;
+            return result;
+        }
+
+        @Override
+        public Stmt rewrite(Stmt stmt)
+        {
+            int enclosingLine = line;
+            line = line(NodeLine.of(stmt));
+            stmt.replaceChildren(this);
+
+            Stmt result = stmt;
+            if (!(stmt instanceof Stmt.Probe) && instrument.probes(stmt)) {
+                result = new Stmt.Probe(stmt, site(stmt));
+            }
+            line = enclosingLine;
+            return result;
+        }
+
+        // у узла без своего токена (литерал, пустой блок) строка родителя
+        private int line(int own)
+        {
+            return own > 0 ? own : line;
+        }
+
+        private ProbeSite site(Object node)
+        {
+            ProbeSite site = new ProbeSite(instrument, sites.size(), module, line, node);
+            sites.add(site);
+            instrument.attached(site);
+            return site;
+        }
+
+        private final Instrument instrument;
+        private final List<ProbeSite> sites;
+        private int line = 0;
+        String module = null;
+    }
+
+    private static final class Detach implements NodeRewriter {
+        Detach(Instrument instrument)
+        {
+            this.instrument = instrument;
+        }
+
+        @Override
+        public Expr rewrite(Expr expr)
+        {
+            expr.replaceChildren(this);
+            if (expr instanceof Expr.Probe && ((Expr.Probe)expr).site.instrument == instrument) {
+                return ((Expr.Probe)expr).expression;
+            }
+            return expr;
+        }
+
+        @Override
+        public Stmt rewrite(Stmt stmt)
+        {
+            stmt.replaceChildren(this);
+            if (stmt instanceof Stmt.Probe && ((Stmt.Probe)stmt).site.instrument == instrument) {
+                return ((Stmt.Probe)stmt).statement;
+            }
+            return stmt;
+        }
+
+        private final Instrument instrument;
+    }
+
+    private final CompiledScript script;
+    private final Instrument instrument;
+    private final List<ProbeSite> sites = new ArrayList<>();
+}
@@ -1,52 +1,251 @@
 package com.lox;
 
-import java.util.ArrayList;
+import com.lox.natives.LoxRuntime;
+import com.lox.natives.NativeError;
+
+import java.io.PrintStream;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// Состояние выполнения одного потока. Основной интерпретатор контекста
+// создаётся конструктором, интерпретаторы потоков spawn - через fork();
+// у всех общие globals, вывод, лимиты и отмена. Шаги и экземпляры
+// считаются на весь запуск: счётчики общие, дочерний интерпретатор начинает
+// с глубины вызова, из которого его создали, spawn считается экземпляром.
+//
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>, LoxRuntime {
+    // как часто await проверяет отмену
+    private static final long POLL_MILLIS = 10;
+    // наибольшая порция шагов, которую поток берёт из общего остатка
+    private static final long STEP_BATCH = 1024;
+
+    Interpreter(PrintStream out, List<NativeCallable> natives, GlobalSlots slots, Budget budget, ErrorReporter reporter)
+    {
+        this.out = out;
+        this.budget = budget;
+        this.reporter = reporter;
+        this.root = this;
+        this.globals = Environment.globals(slots);
+        this.environment = globals;
+        this.constants = new ConstantCache(globals);
+        this.methods = new MethodCache();
+        this.spawned = new ConcurrentLinkedQueue<>();
+        this.stepsLeft = new AtomicLong();
+        this.instancesLeft = new AtomicLong();
+
+        for (NativeCallable function : natives) {
+            globals.define(function.name, function);
+        }
+    }
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    Interpreter()
+    private Interpreter(Interpreter parent)
     {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity()
-            {
-                return 0;
+        this.out = parent.out;
+        this.budget = parent.budget;
+        this.reporter = parent.reporter;
+        this.root = parent.root;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.constants = new ConstantCache(globals);
+        this.methods = new MethodCache();
+        this.spawned = parent.spawned;
+        this.stepsLeft = parent.stepsLeft;
+        this.instancesLeft = parent.instancesLeft;
+        this.callDepth = parent.callDepth;
+        this.modules = parent.modules;
+    }
+
+    void interpret(CompiledScript script)
+    {
+        this.modules = script.modules;
+        // скрипт из файла - тоже модуль: import его по кругу не выполняет его снова
+        if (script.path != null) {
+            imported.add(script.path);
+        }
+
+        // лимиты считаются заново для каждого запуска
+        stepsLeft.set(budget.steps);
+        instancesLeft.set(budget.instances);
+        stepAllowance = 0;
+        stepBatch = 1;
+        callDepth = 0;
+
+        boolean failed = false;
+        try {
+            for (Stmt statement : script.statements) {
+                execute(statement);
             }
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+            failed = true;
+        }
+        joinSpawned(failed);
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments)
-            {
-                return (double)System.currentTimeMillis() / 1000.0;
+    //
+    // Запуск не заканчивается раньше запущенных им функций. Если скрипт упал,
+    // оставшиеся функции отменяются молча. Иначе ошибки функций, результат
+    // которых никто не ждал через await, сообщаются здесь.
+    //
+    private void joinSpawned(boolean cancel)
+    {
+        LoxFuture future;
+        while ((future = spawned.poll()) != null) {
+            if (cancel) {
+                future.interpreter.cancelled = true;
+            }
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (!cancel && !future.awaited && e.getCause() instanceof RuntimeError) {
+                    reporter.runtimeError((RuntimeError)e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CancellationException e) {
+                // отменена до запуска
             }
+        }
+    }
 
-            @Override
-            public String toString()
-            {
-                return "<native fn>";
+    //
+    // LoxRuntime
+    //
+    @Override
+    public Object call(Object function, Object... arguments)
+    {
+        if (!(function instanceof LoxCallable)) {
+            throw new NativeError("Can only call functions and classes.");
+        }
+        LoxCallable callable = (LoxCallable)function;
+        if (callable.arity() != arguments.length) {
+            throw new NativeError("Expected " + callable.arity() + " arguments but got " + arguments.length + ".");
+        }
+
+        // те же лимиты, что и у вызова из Lox (callable); строку ошибке
+        // даёт место вызова нативной функции
+        if (isCancelled()) {
+            throw new NativeError("Execution cancelled.");
+        }
+        if (--stepAllowance < 0 && !takeSteps()) {
+            throw new NativeError("Step budget exceeded.");
+        }
+        int depth = callDepth;
+        try {
+            if (++callDepth > budget.callDepth) {
+                throw new NativeError("Call depth budget exceeded.");
+            }
+            if (callable instanceof LoxClass && instancesLeft.decrementAndGet() < 0) {
+                throw new NativeError("Instance budget exceeded.");
+            }
+            return callable.call(this, arguments);
+        } finally {
+            callDepth = depth;
+        }
+    }
+
+    @Override
+    public LoxRuntime fork()
+    {
+        return new Interpreter(this);
+    }
+
+    @Override
+    public Object spawn(Object function)
+    {
+        if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0) {
+            throw new NativeError("Can only spawn functions without parameters.");
+        }
+
+        if (instancesLeft.decrementAndGet() < 0) {
+            throw new NativeError("Instance budget exceeded.");
+        }
+
+        Interpreter child = new Interpreter(this);
+        LoxFuture future = new LoxFuture(child, () -> {
+            try {
+                return child.call(function);
+            } finally {
+                child.releaseSteps();
             }
         });
+        spawned.add(future);
+        Thread.ofVirtual().name("lox-spawn").start(future);
+        return future;
     }
 
-    void interpret(List<Stmt> statements)
+    @Override
+    public Object await(Object handle)
     {
+        if (!(handle instanceof LoxFuture)) {
+            throw new NativeError("Can only await futures.");
+        }
+
+        LoxFuture future = (LoxFuture)handle;
+        future.awaited = true;
         try {
-            for (Stmt statement : statements) {
-                execute(statement);
+            while (true) {
+                try {
+                    return future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (isCancelled()) {
+                        throw new NativeError("Execution cancelled.");
+                    }
+                }
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        } catch (ExecutionException e) {
+            // ошибка выполнения сохраняет строку внутри запущенной функции
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw new NativeError("Spawned function failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Execution cancelled.");
         }
     }
 
+    @Override
+    public boolean isCancelled()
+    {
+        return cancelled || root.cancelled;
+    }
+
     //
     // Stmt.Visitor
     //
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+
+        Environment frame = frames.push(environment);
+        try {
+            executeBlock(stmt.statements, frame);
+        } finally {
+            frames.pop();
+        }
         return null;
     }
 
@@ -60,7 +259,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.name, stmt.captured, null);
 
         if (stmt.superclass != null) {
             environment = new Environment(environment);
@@ -70,7 +269,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             boolean isInitializer = method.name.lexeme.equals("init");
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
+            LoxFunction function = function(method, isInitializer);
             methods.put(method.name.lexeme, function);
         }
 
@@ -89,14 +288,98 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    //
+    // Цикл for выполняется в одном кадре на все итерации (или вовсе без
+    // кадра, если инициализатор ничего не объявляет). Для счётчика,
+    // найденного Resolver, шаг и сравнение в условии делаются прямо над
+    // кадром, без обхода узлов; если значения не числа, выражения
+    // вычисляются обычным путём и сообщают обычные ошибки. Если узлы
+    // шага или условия обёрнуты инструментом, быстрый путь не используется.
+    //
+    @Override
+    public Void visitForStmt(Stmt.For stmt)
+    {
+        Environment frame = stmt.scoped ? frames.push(environment) : environment;
+        Environment previous = environment;
+        try {
+            environment = frame;
+            if (stmt.initializer != null) {
+                execute(stmt.initializer);
+            }
+
+            Expr.Assign step = stmt.counter != null && isCounterStep(stmt.increment) ? (Expr.Assign)stmt.increment : null;
+            Expr.Binary bound = step != null && stmt.compare != null && isCounterBound(stmt.condition) ? (Expr.Binary)stmt.condition : null;
+            while (bound != null ? isBelowBound(frame, stmt, bound) : stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+                execute(stmt.body);
+                if (step != null) {
+                    Object counter = frame.getAt(0, stmt.counter);
+                    if (counter instanceof Double) {
+                        frame.assignAt(0, step.name, (double)counter + stmt.stride);
+                    } else {
+                        evaluate(step);
+                    }
+                } else if (stmt.increment != null) {
+                    evaluate(stmt.increment);
+                }
+                step(stmt.keyword);
+            }
+        } finally {
+            environment = previous;
+            if (stmt.scoped) {
+                frames.pop();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCounterStep(Expr increment)
+    {
+        return increment instanceof Expr.Assign
+            && ((Expr.Assign)increment).value instanceof Expr.Binary
+            && ((Expr.Binary)((Expr.Assign)increment).value).left instanceof Expr.Variable
+            && ((Expr.Binary)((Expr.Assign)increment).value).right instanceof Expr.Literal;
+    }
+
+    private static boolean isCounterBound(Expr condition)
+    {
+        return condition instanceof Expr.Binary && ((Expr.Binary)condition).left instanceof Expr.Variable;
+    }
+
+    private boolean isBelowBound(Environment frame, Stmt.For stmt, Expr.Binary bound)
+    {
+        Object left = frame.getAt(0, stmt.counter);
+        Object right = evaluate(bound.right);
+        ensureNumberOperands(bound.operator, left, right);
+
+        switch (stmt.compare) {
+            case LESS:
+                return (double)left < (double)right;
+            case LESS_EQUAL:
+                return (double)left <= (double)right;
+            case GREATER:
+                return (double)left > (double)right;
+            case GREATER_EQUAL:
+                return (double)left >= (double)right;
+        }
+        throw new UnreachableCodeError(bound.operator);
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        // локальная функция может захватывать саму себя,
+        // поэтому ячейка переменной нужна до создания замыкания
+        define(stmt.name, stmt.captured, null);
+        environment.assign(stmt.name, function(stmt, false));
         return null;
     }
 
+    private LoxFunction function(Stmt.Function declaration, boolean isInitializer)
+    {
+        Environment closure = environment.capture(declaration.captures.names);
+        return new LoxFunction(declaration, closure, declaration.captures, isInitializer);
+    }
+
     @Override
     public Void visitIfStmt(Stmt.If stmt)
     {
@@ -108,11 +391,33 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    //
+    // Верхний уровень модуля выполняется в globals не больше одного раза
+    // на контекст, даже при циклических импортах.
+    //
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        if (imported.add(stmt.module)) {
+            executeBlock(modules.get(stmt.module).statements, globals);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt)
+    {
+        stmt.site.instrument.enter(stmt.site);
+        execute(stmt.statement);
+        stmt.site.instrument.exit(stmt.site, null);
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -132,6 +437,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     {
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            step(stmt.keyword);
         }
         return null;
     }
@@ -144,18 +450,69 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.captured, value);
         return null;
     }
 
-    private void execute(Stmt stmt)
+    private void define(Token name, boolean captured, Object value)
     {
-        stmt.accept(this);
+        environment.define(name.lexeme, captured ? new Upvalue(value) : value);
     }
 
-    void resolve(Expr expr, int depth)
+    //
+    // Остановка выполнения из другого потока (например, по таймауту).
+    // Проверяется на обратных переходах циклов и при вызовах.
+    //
+    void cancel()
     {
-        locals.put(expr, depth);
+        cancelled = true;
+    }
+
+    private void step(Token token)
+    {
+        if (--stepAllowance < 0 && !takeSteps()) {
+            throw new RuntimeError(token, "Step budget exceeded.");
+        }
+        if (cancelled || root.cancelled) {
+            throw new RuntimeError(token, "Execution cancelled.");
+        }
+    }
+
+    //
+    // Шаги берутся из общего остатка порциями, которые растут вдвое до
+    // STEP_BATCH: короткий fork не забирает лишнего, а долгий цикл редко
+    // обращается к общему счётчику. Сумма порций не больше лимита.
+    // false - лимит исчерпан.
+    //
+    private boolean takeSteps()
+    {
+        while (true) {
+            long left = stepsLeft.get();
+            if (left <= 0) {
+                stepAllowance = 0;
+                return false;
+            }
+            long taken = Math.min(stepBatch, left);
+            if (stepsLeft.compareAndSet(left, left - taken)) {
+                stepAllowance = taken - 1;
+                stepBatch = Math.min(stepBatch * 2, STEP_BATCH);
+                return true;
+            }
+        }
+    }
+
+    // неизрасходованная порция возвращается, когда поток spawn завершился
+    private void releaseSteps()
+    {
+        if (stepAllowance > 0) {
+            stepsLeft.addAndGet(stepAllowance);
+            stepAllowance = 0;
+        }
+    }
+
+    private void execute(Stmt stmt)
+    {
+        stmt.accept(this);
     }
 
     void executeBlock(List<Stmt> statements, Environment environment)
@@ -198,11 +555,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     {
         Object value = evaluate(expr.value);
 
-        Integer depth = locals.get(expr);
-        if (depth != null) {
-            environment.assignAt(depth, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.name, value);
         } else {
-            globals.assign(expr.name, value);
+            globals.assignGlobal(expr.slot, expr.name, value);
         }
 
         return value;
@@ -262,34 +618,258 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitCallExpr(Expr.Call expr)
     {
-        Object callee = evaluate(expr.callee);
+        return call(evaluate(expr.callee), expr);
+    }
+
+    //
+    // объект.метод(...): через MethodCache без bind, иначе как обычный вызов
+    // свойства. Если Get обёрнут инструментом, вызов выполняется как Call.
+    //
+    @Override
+    public Object visitInvokeMethodExpr(Expr.InvokeMethod expr)
+    {
+        Expr.Call call = expr.call;
+        if (!(call.callee instanceof Expr.Get)) {
+            return visitCallExpr(call);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        Expr.Get get = (Expr.Get)call.callee;
+        Object object = evaluate(get.object);
+        if (object instanceof LoxInstance) {
+            LoxFunction method = methods.target(call.site, (LoxInstance)object, get.name.lexeme);
+            if (method != null) {
+                return callMethod(method, (LoxInstance)object, call);
+            }
+        }
+        return call(property(object, get.name), call);
+    }
+
+    private Object call(Object callee, Expr.Call expr)
+    {
+        if (callee instanceof NativeCallable) {
+            MathIntrinsic intrinsic = ((NativeCallable)callee).intrinsic;
+            if (intrinsic != null && intrinsic.arity == expr.arguments.size()) {
+                return callIntrinsic(intrinsic, (NativeCallable)callee, expr);
+            }
+        }
+
+        List<Expr> arguments = expr.arguments;
+        int depth = callDepth;
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return callable(callee, expr, 0).call0(this);
+                case 1: {
+                    Object a0 = evaluate(arguments.get(0));
+                    return callable(callee, expr, 1).call1(this, a0);
+                }
+                case 2: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    return callable(callee, expr, 2).call2(this, a0, a1);
+                }
+                case 3: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    Object a2 = evaluate(arguments.get(2));
+                    return callable(callee, expr, 3).call3(this, a0, a1, a2);
+                }
+                case 4: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    Object a2 = evaluate(arguments.get(2));
+                    Object a3 = evaluate(arguments.get(3));
+                    return callable(callee, expr, 4).call4(this, a0, a1, a2, a3);
+                }
+                default: {
+                    Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; ++i) {
+                        values[i] = evaluate(arguments.get(i));
+                    }
+                    return callable(callee, expr, values.length).call(this, values);
+                }
+            }
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            callDepth = depth;
+        }
+    }
+
+    //
+    // Вызов через MethodCache: 'this' кладётся в кадр из стека, а не в
+    // окружение нового связанного LoxFunction, как при bind.
+    //
+    private Object callMethod(LoxFunction method, LoxInstance receiver, Expr.Call expr)
+    {
+        List<Expr> arguments = expr.arguments;
+        int depth = callDepth;
+        Environment self = method.bindFrame(this, receiver);
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    callable(method, expr, 0);
+                    return method.call0(this, self);
+                case 1: {
+                    Object a0 = evaluate(arguments.get(0));
+                    callable(method, expr, 1);
+                    return method.call1(this, self, a0);
+                }
+                case 2: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    callable(method, expr, 2);
+                    return method.call2(this, self, a0, a1);
+                }
+                case 3: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    Object a2 = evaluate(arguments.get(2));
+                    callable(method, expr, 3);
+                    return method.call3(this, self, a0, a1, a2);
+                }
+                case 4: {
+                    Object a0 = evaluate(arguments.get(0));
+                    Object a1 = evaluate(arguments.get(1));
+                    Object a2 = evaluate(arguments.get(2));
+                    Object a3 = evaluate(arguments.get(3));
+                    callable(method, expr, 4);
+                    return method.call4(this, self, a0, a1, a2, a3);
+                }
+                default: {
+                    Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; ++i) {
+                        values[i] = evaluate(arguments.get(i));
+                    }
+                    callable(method, expr, values.length);
+                    return method.call(this, self, values);
+                }
+            }
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        } finally {
+            frames.pop();
+            callDepth = depth;
         }
+    }
+
+    private LoxCallable callable(Object callee, Expr.Call expr, int argumentCount)
+    {
+        step(expr.paren);
 
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
         LoxCallable function = (LoxCallable)callee;
-        if (function.arity() != arguments.size()) {
+        if (function.arity() != argumentCount) {
             throw new RuntimeError(expr.paren, "Expected " +
                 function.arity() + " arguments but got " +
-                arguments.size() + ".");
+                argumentCount + ".");
+        }
+
+        if (++callDepth > budget.callDepth) {
+            throw new RuntimeError(expr.paren, "Call depth budget exceeded.");
+        }
+        if (function instanceof LoxClass && instancesLeft.decrementAndGet() < 0) {
+            throw new RuntimeError(expr.paren, "Instance budget exceeded.");
+        }
+        return function;
+    }
+
+    //
+    // callee - исходная нативная функция MathLibrary (глобальная переменная
+    // не переопределена), поэтому считаем прямо на double.
+    //
+    private Object callIntrinsic(MathIntrinsic intrinsic, NativeCallable function, Expr.Call expr)
+    {
+        Object x = evaluate(expr.arguments.get(0));
+        if (intrinsic.arity == 1) {
+            ensureNumberArgument(function, expr, 0, x);
+            return intrinsic.apply((double)x);
+        }
+
+        Object y = evaluate(expr.arguments.get(1));
+        ensureNumberArgument(function, expr, 0, x);
+        ensureNumberArgument(function, expr, 1, y);
+        return intrinsic.apply((double)x, (double)y);
+    }
+
+    private void ensureNumberArgument(NativeCallable function, Expr.Call expr, int index, Object argument)
+    {
+        if (argument instanceof Double) {
+            return;
+        }
+
+        throw new RuntimeError(expr.paren, "Argument " + (index + 1) + " of '" + function.name + "' must be a number.");
+    }
+
+    @Override
+    public Object visitProbeExpr(Expr.Probe expr)
+    {
+        expr.site.instrument.enter(expr.site);
+        Object value = evaluate(expr.expression);
+        expr.site.instrument.exit(expr.site, value);
+        return value;
+    }
+
+    @Override
+    public Object visitCompareLocalConstExpr(Expr.CompareLocalConst expr)
+    {
+        Object left = environment.getAt(expr.depth, expr.name);
+        if (!(left instanceof Double)) {
+            // ошибку сообщает обычное сравнение
+            return visitBinaryExpr(expr.comparison);
         }
-        return function.call(this, arguments);
+
+        double value = (double)left;
+        switch (expr.comparison.operator.type) {
+            case LESS:
+                return value < expr.constant;
+            case LESS_EQUAL:
+                return value <= expr.constant;
+            case GREATER:
+                return value > expr.constant;
+            case GREATER_EQUAL:
+                return value >= expr.constant;
+        }
+        throw new UnreachableCodeError(expr.comparison.operator);
+    }
+
+    @Override
+    public Object visitIncrementLocalExpr(Expr.IncrementLocal expr)
+    {
+        Expr.Assign assignment = expr.assignment;
+        Object value = environment.getAt(assignment.depth, assignment.name);
+        if (!(value instanceof Double)) {
+            return visitAssignExpr(assignment);
+        }
+
+        Object result = (double)value + expr.delta;
+        environment.assignAt(assignment.depth, assignment.name, result);
+        return result;
+    }
+
+    @Override
+    public Object visitGetThisFieldExpr(Expr.GetThisField expr)
+    {
+        return ((LoxInstance)environment.getAt(expr.depth, "this")).get(expr.get.name);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr)
     {
-        Object object = evaluate(expr.object);
+        return property(evaluate(expr.object), expr.name);
+    }
+
+    private Object property(Object object, Token name)
+    {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance)object).get(expr.name);
+            return ((LoxInstance)object).get(name);
         }
 
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+        throw new RuntimeError(name, "Only instances have properties.");
     }
 
     private boolean isEqual(Object left, Object right)
@@ -345,7 +925,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int depth = locals.get(expr);
+        int depth = expr.depth;
         LoxClass superclass = (LoxClass)environment.getAt(depth, "super");
         LoxInstance object = (LoxInstance)environment.getAt(depth - 1, "this");
         LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
@@ -357,7 +937,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth);
     }
 
     @Override
@@ -379,13 +959,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitVariableExpr(Expr.Variable expr)
     {
-        return lookUpVariable(expr.name, expr);
+        if (expr.constant) {
+            return constants.get(expr.slot, expr.name);
+        }
+        if (expr.depth == -1) {
+            return globals.getGlobal(expr.slot, expr.name);
+        }
+        return environment.getAt(expr.depth, expr.name);
     }
 
-    private Object lookUpVariable(Token name, Expr expr)
+    private Object lookUpVariable(Token name, int depth)
     {
-        Integer depth = locals.get(expr);
-        if (depth != null) {
+        if (depth != -1) {
             return environment.getAt(depth, name);
         } else {
             return globals.get(name);
@@ -437,7 +1022,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private final PrintStream out;
+    private final ErrorReporter reporter;
+    private final Budget budget;
+    private final Interpreter root;
+    final FrameStack frames = new FrameStack();
+    private final Queue<LoxFuture> spawned;
+    // остатки лимитов запуска, общие для основного интерпретатора и дочерних
+    private final AtomicLong stepsLeft;
+    private final AtomicLong instancesLeft;
+    private long stepAllowance = 0;
+    private long stepBatch = 1;
+    private int callDepth;
+    private volatile boolean cancelled = false;
+    private Map<String, Module> modules = Collections.emptyMap();
+    // модули, уже выполненные в globals (переносятся снимком, см. Snapshot)
+    final Set<String> imported = new HashSet<>();
+    final Environment globals;
+    private final ConstantCache constants;
+    private final MethodCache methods;
+    private Environment environment;
 }
@@ -0,0 +1,95 @@
+package com.lox;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Гистограмма задержек с логарифмическими корзинами (степени двойки микросекунд).
+// Запись без блокировок, поэтому её можно вести из любого числа потоков.
+//
+class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    void record(long nanos)
+    {
+        long micros = Math.max(nanos / 1000, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        counts.incrementAndGet(bucket);
+    }
+
+    long count()
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    //
+    // Верхняя граница корзины, в которую попадает перцентиль, в микросекундах.
+    //
+    long percentile(double percent)
+    {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(percent / 100.0 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    String render()
+    {
+        long[] snapshot = snapshot();
+        long max = 0;
+        for (long count : snapshot) {
+            max = Math.max(max, count);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("requests: ").append(count()).append('\n');
+        builder.append("p50: ").append(percentile(50)).append(" us, ");
+        builder.append("p90: ").append(percentile(90)).append(" us, ");
+        builder.append("p99: ").append(percentile(99)).append(" us\n");
+        for (int i = 0; i < BUCKETS; ++i) {
+            if (snapshot[i] == 0) {
+                continue;
+            }
+            int width = max == 0 ? 0 : (int)(40 * snapshot[i] / max);
+            builder.append(String.format("<= %10d us %10d ", upperBound(i), snapshot[i]));
+            for (int j = 0; j < Math.max(width, 1); ++j) {
+                builder.append('#');
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private long[] snapshot()
+    {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    private static long upperBound(int bucket)
+    {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+}
@@ -0,0 +1,28 @@
+package com.lox;
+
+import java.io.PrintStream;
+
+//
+// jlox --trace: печатает строку каждой выполняемой инструкции.
+//
+final class LineTracer implements Instrument {
+    LineTracer(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    @Override
+    public boolean probes(Stmt stmt)
+    {
+        // у блока трассируются сами инструкции
+        return !(stmt instanceof Stmt.Block);
+    }
+
+    @Override
+    public void enter(ProbeSite site)
+    {
+        out.println("[trace] line " + site.line);
+    }
+
+    private final PrintStream out;
+}
@@ -2,32 +2,123 @@ package com.lox;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 public class Lox {
     public static void main(String[] args) throws IOException
     {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        if (args.length > 0 && args[0].equals("bench")) {
+            System.exit(Bench.run(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && args[0].equals("serve")) {
+            System.exit(Server.run(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && args[0].equals("--trace")) {
+            tracer = new LineTracer(System.err);
+            main(Arrays.copyOfRange(args, 1, args.length));
+        } else if (args.length > 2 && args[0].equals("--coverage")) {
+            coveragePath = Paths.get(args[1]);
+            main(Arrays.copyOfRange(args, 2, args.length));
+        } else if (args.length > 2 && args[0].equals("--snapshot-in")) {
+            snapshotIn = Paths.get(args[1]);
+            main(Arrays.copyOfRange(args, 2, args.length));
+        } else if (args.length > 2 && args[0].equals("--snapshot-out")) {
+            snapshotOut = Paths.get(args[1]);
+            main(Arrays.copyOfRange(args, 2, args.length));
+        } else if (args.length > 1 && args[0].equals("--stack-mb") && stackSize(args[1]) > 0) {
+            budget = budget.withStackSize(stackSize(args[1]));
+            main(Arrays.copyOfRange(args, 2, args.length));
+        } else if (args.length > 1 || (args.length == 1 && args[0].startsWith("--"))) {
+            System.out.println("Usage: jlox [--trace] [--coverage lcov-file] [--snapshot-in file] [--snapshot-out file] [--stack-mb N] [script]");
+            System.out.println("       jlox bench [directory] [--warmup N] [--iterations N]");
+            System.out.println("       jlox serve [--port N] [--timeout-ms N] [--max-steps N] [--max-depth N] [--max-instances N] [--stack-mb N]");
+            System.out.println("       --stack-mb N (1.." + MAX_STACK_MB + ") is a hint to the JVM for the script thread's stack;");
+            System.out.println("       serve --stack-mb runs every request on its own platform thread instead of a virtual one");
         } else if (args.length == 1) {
+            context = engine.newContext(System.out, budget);
             runFile(args[0]);
         } else {
+            context = engine.newContext(System.out, budget);
             runPrompt();
         }
     }
 
+    //
+    // Байт стека для --stack-mb или -1, если значение не число от 1 до
+    // MAX_STACK_MB (сдвиг на 20 бит не должен переполниться).
+    //
+    static long stackSize(String megabytes)
+    {
+        try {
+            long value = Long.parseLong(megabytes);
+            return value >= 1 && value <= MAX_STACK_MB ? value << 20 : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private static void runFile(String path) throws IOException
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Path file = Paths.get(path);
+        byte[] bytes = Files.readAllBytes(file);
+        if (snapshotIn != null) {
+            try (InputStream in = Files.newInputStream(snapshotIn)) {
+                context.readSnapshot(in);
+            } catch (NoSuchFileException e) {
+                System.err.println("Snapshot error: Cannot read '" + snapshotIn + "'.");
+                System.exit(74);
+            } catch (IOException e) {
+                System.err.println("Snapshot error: " + e.getMessage());
+                System.exit(74);
+            }
+        }
+        Path absolute = file.toAbsolutePath().normalize();
+        run(new String(bytes, Charset.defaultCharset()), absolute.getParent(), absolute.toString());
+        if (coverage != null) {
+            try (Writer writer = Files.newBufferedWriter(coveragePath)) {
+                coverage.writeLcov(writer, file.toAbsolutePath().toString());
+            }
+        }
+        if (snapshotOut != null && !hadError && !hadRuntimeError) {
+            writeSnapshot(snapshotOut.toAbsolutePath());
+        }
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
 
+    //
+    // Снимок пишется во временный файл рядом и заменяет target только
+    // целиком: неудачная запись не портит предыдущий снимок.
+    //
+    private static void writeSnapshot(Path target) throws IOException
+    {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                context.writeSnapshot(out);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            System.err.println("Snapshot error: " + e.getMessage());
+            System.exit(74);
+        }
+    }
+
     private static void runPrompt() throws IOException
     {
         InputStreamReader input = new InputStreamReader(System.in);
@@ -35,18 +126,18 @@ public class Lox {
 
         while(true) {
             System.out.print("> ");
-            run(reader.readLine());
+            run(reader.readLine(), Paths.get(""), null);
             hadError = false;
         }
     }
 
-    private static void run(String source)
+    // path - абсолютный путь файла скрипта, null для строки REPL
+    private static void run(String source, Path directory, String path)
     {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (hadError) {
+        List<LoxError> errors = new ArrayList<>();
+        List<Stmt> statements = LoxEngine.parse(source, errors::add);
+        if (report(errors)) {
+            hadError = true;
             return;
         }
 
@@ -56,42 +147,44 @@ public class Lox {
 
         System.out.println();
         System.out.println("-----Interpreter----");
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-        if (hadError) {
+        LoxEngine.resolve(statements, engine.globalSlots, errors::add);
+        Map<String, Module> modules = engine.link(statements, directory, path, errors::add);
+        if (report(errors)) {
+            hadError = true;
             return;
         }
-        interpreter.interpret(statements);
-    }
-
-    static void error(int line, String message)
-    {
-        report(line, "", message);
-    }
-
-    static void error(Token token, String message)
-    {
-        if (token.type == TokenType.EOF) {
-            report(token.line, "at end", message);
-        } else {
-            report(token.line, "at '" + token.lexeme + "'", message);
+        CompiledScript script = new CompiledScript(statements, errors, modules, path);
+        if (tracer != null) {
+            Instrumentation.attach(script, tracer);
+        }
+        if (coveragePath != null) {
+            coverage = Coverage.attach(script);
+        }
+        if (!context.run(script)) {
+            report(context.errors());
+            context.clearErrors();
+            hadRuntimeError = true;
         }
     }
 
-    static void runtimeError(RuntimeError error)
-    {
-        System.err.println("[line " + error.token.line + "] Runtime Error: " + error.getMessage());
-        hadRuntimeError = true;
-    }
-
-    private static void report(int line, String where, String message)
+    private static boolean report(List<LoxError> errors)
     {
-        System.err.println("[line " + line + "] Syntax Error " + where + ": " + message);
-        hadError = true;
+        for (LoxError error : errors) {
+            System.err.println(error);
+        }
+        return !errors.isEmpty();
     }
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static final LoxEngine engine = new LoxEngine();
+    // --stack-mb задаёт стек потока, в котором выполняется скрипт
+    static final long MAX_STACK_MB = 64 * 1024;
+    private static Budget budget = Budget.UNLIMITED;
+    private static LoxContext context = null;
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
+    private static Instrument tracer = null;
+    private static Path coveragePath = null;
+    private static Coverage coverage = null;
+    private static Path snapshotIn = null;
+    private static Path snapshotOut = null;
 }
-
@@ -1,8 +1,36 @@
 package com.lox;
 
-import java.util.List;
-
+//
+// callN - вход для вызова с фиксированным числом аргументов: аргументы
+// передаются напрямую, без промежуточного списка. Вызывающий уже проверил,
+// что N совпадает с arity(). Для большего числа аргументов - call(Object[]).
+//
 interface LoxCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter)
+    {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a0)
+    {
+        return call(interpreter, new Object[] { a0 });
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1)
+    {
+        return call(interpreter, new Object[] { a0, a1 });
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2)
+    {
+        return call(interpreter, new Object[] { a0, a1, a2 });
+    }
+
+    default Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3)
+    {
+        return call(interpreter, new Object[] { a0, a1, a2, a3 });
+    }
 }
@@ -1,18 +1,61 @@
 package com.lox;
 
-import java.util.List;
+import java.io.Serializable;
 import java.util.Map;
 
-class LoxClass implements LoxCallable {
+@SuppressWarnings("serial")
+class LoxClass implements LoxCallable, Serializable {
     final String name;
     final LoxClass superclass;
     private final Map<String, LoxFunction> methods;
+    // init этого класса или ближайшего предка, без привязки к экземпляру
+    private final LoxFunction initializer;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods)
     {
         this.name = name;
         this.superclass = superclass;
         this.methods = methods;
+
+        // анализ иерархии: методы предков с теми же именами больше не единственные
+        if (superclass != null) {
+            for (String method : methods.keySet()) {
+                LoxClass owner = superclass.declaringClass(method);
+                if (owner != null) {
+                    owner.methods.get(method).overridden = true;
+                }
+            }
+        }
+
+        LoxClass owner = declaringClass("init");
+        this.initializer = owner != null ? owner.methods.get("init") : null;
+    }
+
+    // ближайший класс цепочки (этот или предок), в котором объявлен метод
+    LoxClass declaringClass(String name)
+    {
+        for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+            if (klass.methods.containsKey(name)) {
+                return klass;
+            }
+        }
+        return null;
+    }
+
+    // метод, объявленный в самом классе, без привязки к экземпляру
+    LoxFunction declaredMethod(String name)
+    {
+        return methods.get(name);
+    }
+
+    boolean isSubclassOf(LoxClass other)
+    {
+        for (LoxClass klass = this; klass != null; klass = klass.superclass) {
+            if (klass == other) {
+                return true;
+            }
+        }
+        return false;
     }
 
     LoxFunction findMethod(LoxInstance instance, String name)
@@ -37,17 +80,99 @@ class LoxClass implements LoxCallable {
     @Override
     public int arity()
     {
-        LoxFunction initializer = methods.get("init");
         return initializer != null ? initializer.arity() : 0;
     }
 
+    //
+    // Конструирование без bind: 'this' для init кладётся в кадр из стека
+    // кадров (как в MethodCache), результат init не нужен - это сам экземпляр.
+    //
+    @Override
+    public Object call0(Interpreter interpreter)
+    {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call0(interpreter, self);
+            } finally {
+                interpreter.frames.pop();
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0)
+    {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call1(interpreter, self, a0);
+            } finally {
+                interpreter.frames.pop();
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1)
+    {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call2(interpreter, self, a0, a1);
+            } finally {
+                interpreter.frames.pop();
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2)
+    {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call3(interpreter, self, a0, a1, a2);
+            } finally {
+                interpreter.frames.pop();
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3)
+    {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call4(interpreter, self, a0, a1, a2, a3);
+            } finally {
+                interpreter.frames.pop();
+            }
+        }
+        return instance;
+    }
+
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments)
+    public Object call(Interpreter interpreter, Object[] arguments)
     {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = methods.get("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            Environment self = initializer.bindFrame(interpreter, instance);
+            try {
+                initializer.call(interpreter, self, arguments);
+            } finally {
+                interpreter.frames.pop();
+            }
         }
         return instance;
     }
@@ -0,0 +1,118 @@
+package com.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//
+// Независимое окружение выполнения: свои глобальные переменные, вывод
+// и ошибки выполнения. Глобальные переменные сохраняются между вызовами run,
+// как между строками REPL.
+//
+public final class LoxContext {
+    LoxContext(LoxEngine engine, PrintStream out, Budget budget)
+    {
+        this.interpreter = new Interpreter(out, engine.natives, engine.globalSlots, budget, errors::add);
+        this.natives = engine.natives;
+        this.stackSize = budget.stackSize;
+    }
+
+    //
+    // Возвращает false, если выполнение прервалось ошибкой (см. errors()).
+    //
+    public boolean run(CompiledScript script)
+    {
+        if (script.hasErrors()) {
+            throw new IllegalArgumentException("Script has compile errors: " + script.errors());
+        }
+
+        int reported = errors.size();
+        if (stackSize > 0) {
+            runOnOwnStack(script);
+        } else {
+            interpreter.interpret(script);
+        }
+        return errors.size() == reported;
+    }
+
+    //
+    // Каждый вызов Lox занимает несколько кадров JVM, поэтому глубина рекурсии
+    // определяется размером стека потока. Здесь он задаётся Budget.stackSize.
+    //
+    private void runOnOwnStack(CompiledScript script)
+    {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                interpreter.interpret(script);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "lox-run", stackSize);
+        thread.start();
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // вызывающий поток прерван - останавливаем скрипт и дожидаемся его
+                interrupted = true;
+                interpreter.cancel();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure[0] instanceof RuntimeException) {
+            throw (RuntimeException)failure[0];
+        }
+        if (failure[0] instanceof Error) {
+            throw (Error)failure[0];
+        }
+    }
+
+    //
+    // Сохраняет глобальные переменные контекста (функции, классы, значения)
+    // так, чтобы readSnapshot восстановил их в другом контексте или процессе
+    // без повторного выполнения определяющего их скрипта (см. Snapshot).
+    //
+    public void writeSnapshot(OutputStream out) throws IOException
+    {
+        Snapshot.write(interpreter, out);
+    }
+
+    public void readSnapshot(InputStream in) throws IOException
+    {
+        Snapshot.read(interpreter, natives, in);
+    }
+
+    //
+    // Прерывает текущее и все последующие выполнения в этом контексте
+    // ошибкой выполнения. Можно вызывать из любого потока.
+    //
+    public void cancel()
+    {
+        interpreter.cancel();
+    }
+
+    public List<LoxError> errors()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    public void clearErrors()
+    {
+        errors.clear();
+    }
+
+    private final List<LoxError> errors = new ArrayList<>();
+    private final Interpreter interpreter;
+    private final List<NativeCallable> natives;
+    private final long stackSize;
+}
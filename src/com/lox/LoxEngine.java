@@ -0,0 +1,112 @@
+package com.lox;
+
+import com.lox.natives.NativeRegistry;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+//
+// Точка входа для встраивания jlox.
+//
+// Движок компилирует исходник один раз в неизменяемый CompiledScript,
+// который можно одновременно выполнять в любом числе независимых LoxContext
+// (у каждого свои глобальные переменные, вывод и список ошибок).
+// Сам движок и CompiledScript потокобезопасны, LoxContext - нет:
+// один контекст используется одним потоком за раз.
+//
+public final class LoxEngine {
+    public LoxEngine()
+    {
+        this(NativeRegistry.standard());
+    }
+
+    public LoxEngine(NativeRegistry natives)
+    {
+        List<NativeCallable> callables = new ArrayList<>();
+        for (NativeRegistry.Entry entry : natives.entries()) {
+            callables.add(new NativeCallable(entry));
+        }
+        this.natives = Collections.unmodifiableList(callables);
+    }
+
+    //
+    // Пути в import считаются от текущего каталога.
+    //
+    public CompiledScript compile(String source)
+    {
+        return compile(source, Paths.get(""), null);
+    }
+
+    //
+    // Компилирует файл вместе со всеми модулями, которые он подключает.
+    // Сам файл тоже считается модулем: import его из модуля по кругу не
+    // выполняет его ещё раз.
+    //
+    public CompiledScript compileFile(Path path) throws IOException
+    {
+        String source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        Path file = path.toAbsolutePath().normalize();
+        return compile(source, file.getParent(), file.toString());
+    }
+
+    private CompiledScript compile(String source, Path directory, String path)
+    {
+        List<LoxError> errors = new ArrayList<>();
+        List<Stmt> statements = parse(source, errors::add);
+        if (errors.isEmpty()) {
+            resolve(statements, globalSlots, errors::add);
+        }
+        Map<String, Module> modules = link(statements, directory, path, errors::add);
+        return new CompiledScript(statements, errors, modules, path);
+    }
+
+    public LoxContext newContext()
+    {
+        return newContext(System.out);
+    }
+
+    public LoxContext newContext(PrintStream out)
+    {
+        return newContext(out, Budget.UNLIMITED);
+    }
+
+    public LoxContext newContext(PrintStream out, Budget budget)
+    {
+        return new LoxContext(this, out, budget);
+    }
+
+    static List<Stmt> parse(String source, ErrorReporter reporter)
+    {
+        Scanner scanner = new Scanner(source, reporter);
+        List<Token> tokens = scanner.scanTokens();
+        Parser parser = new Parser(tokens, reporter);
+        return parser.parse();
+    }
+
+    static void resolve(List<Stmt> statements, GlobalSlots slots, ErrorReporter reporter)
+    {
+        Resolver resolver = new Resolver(reporter, slots);
+        resolver.resolve(statements);
+        resolver.speculateConstants();
+        Superinstructions.rewrite(statements);
+    }
+
+    Map<String, Module> link(List<Stmt> statements, Path directory, String path, ErrorReporter reporter)
+    {
+        return modules.load(statements, directory, path, reporter);
+    }
+
+    final List<NativeCallable> natives;
+    // номера глобальных переменных для скриптов и контекстов этого движка
+    final GlobalSlots globalSlots = new GlobalSlots();
+    private final ModuleLoader modules = new ModuleLoader(ForkJoinPool.commonPool(), globalSlots);
+}
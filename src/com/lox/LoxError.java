@@ -0,0 +1,70 @@
+package com.lox;
+
+//
+// Ошибка компиляции или выполнения скрипта. toString() даёт тот же текст,
+// что печатает jlox.
+//
+public final class LoxError {
+    public enum Kind {
+        SYNTAX,
+        RUNTIME,
+    }
+
+    LoxError(Kind kind, int line, String where, String message)
+    {
+        this(kind, null, line, where, message);
+    }
+
+    private LoxError(Kind kind, String module, int line, String where, String message)
+    {
+        this.kind = kind;
+        this.module = module;
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    LoxError inModule(String module)
+    {
+        return new LoxError(kind, module, line, where, message);
+    }
+
+    public Kind kind()
+    {
+        return kind;
+    }
+
+    //
+    // Путь подключённого модуля или null для самого скрипта.
+    //
+    public String module()
+    {
+        return module;
+    }
+
+    public int line()
+    {
+        return line;
+    }
+
+    public String message()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        String location = module == null ? "[line " + line + "]" : "[" + module + ", line " + line + "]";
+        if (kind == Kind.RUNTIME) {
+            return location + " Runtime Error: " + message;
+        }
+        return location + " Syntax Error " + where + ": " + message;
+    }
+
+    private final Kind kind;
+    private final String module;
+    private final int line;
+    private final String where;
+    private final String message;
+}
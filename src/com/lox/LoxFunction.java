@@ -1,12 +1,14 @@
 package com.lox;
 
-import java.util.List;
+import java.io.Serializable;
 
-class LoxFunction implements LoxCallable {
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer)
+@SuppressWarnings("serial")
+class LoxFunction implements LoxCallable, Serializable {
+    LoxFunction(Stmt.Function declaration, Environment closure, Captures captures, boolean isInitializer)
     {
         this.declaration = declaration;
         this.closure = closure;
+        this.captures = captures;
         this.isInitializer = isInitializer;
     }
 
@@ -14,7 +16,7 @@ class LoxFunction implements LoxCallable {
     {
         Environment env = new Environment(closure);
         env.define("this", instance);
-        return new LoxFunction(declaration, env, isInitializer);
+        return new LoxFunction(declaration, env, captures, isInitializer);
     }
 
     @Override
@@ -23,14 +25,148 @@ class LoxFunction implements LoxCallable {
         return declaration.parameters.size();
     }
 
+    //
+    // Вызов метода без bind (см. MethodCache): окружение с 'this' тоже берётся
+    // из стека кадров, вызывающий снимает его после вызова с closure = этим кадром.
+    //
+    Environment bindFrame(Interpreter interpreter, LoxInstance instance)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            env.define("this", instance);
+        } catch (StackOverflowError error) {
+            // кадр ещё не принадлежит вызывающему, снимаем сами
+            interpreter.frames.pop();
+            throw error;
+        }
+        return env;
+    }
+
+    //
+    // Аргументы сразу кладутся в окружение вызова из стека кадров. Всё после
+    // push - внутри try: переполнение стека (Interpreter превращает его в
+    // ошибку выполнения) не должно оставить кадр в стеке.
+    //
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments)
+    public Object call0(Interpreter interpreter)
     {
-        Environment env = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); ++i) {
-            env.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        return call0(interpreter, closure);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0)
+    {
+        return call1(interpreter, closure, a0);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1)
+    {
+        return call2(interpreter, closure, a0, a1);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2)
+    {
+        return call3(interpreter, closure, a0, a1, a2);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a0, Object a1, Object a2, Object a3)
+    {
+        return call4(interpreter, closure, a0, a1, a2, a3);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments)
+    {
+        return call(interpreter, closure, arguments);
+    }
+
+    Object call0(Interpreter interpreter, Environment closure)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
         }
+    }
 
+    Object call1(Interpreter interpreter, Environment closure, Object a0)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            define(env, 0, a0);
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
+        }
+    }
+
+    Object call2(Interpreter interpreter, Environment closure, Object a0, Object a1)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            define(env, 0, a0);
+            define(env, 1, a1);
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
+        }
+    }
+
+    Object call3(Interpreter interpreter, Environment closure, Object a0, Object a1, Object a2)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            define(env, 0, a0);
+            define(env, 1, a1);
+            define(env, 2, a2);
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
+        }
+    }
+
+    Object call4(Interpreter interpreter, Environment closure, Object a0, Object a1, Object a2, Object a3)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            define(env, 0, a0);
+            define(env, 1, a1);
+            define(env, 2, a2);
+            define(env, 3, a3);
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
+        }
+    }
+
+    Object call(Interpreter interpreter, Environment closure, Object[] arguments)
+    {
+        Environment env = interpreter.frames.push(closure);
+        try {
+            for (int i = 0; i < arguments.length; ++i) {
+                define(env, i, arguments[i]);
+            }
+            return invoke(interpreter, closure, env);
+        } finally {
+            interpreter.frames.pop();
+        }
+    }
+
+    private void define(Environment env, int index, Object value)
+    {
+        String name = declaration.parameters.get(index).lexeme;
+        env.define(name, captures.isParameterCaptured(index) ? new Upvalue(value) : value);
+    }
+
+    //
+    // env взят из interpreter.frames, снимает его вызывающий.
+    //
+    private Object invoke(Interpreter interpreter, Environment closure, Environment env)
+    {
         try {
             interpreter.executeBlock(declaration.body, env);
         } catch (Return returnValue) {
@@ -47,6 +183,11 @@ class LoxFunction implements LoxCallable {
     }
 
     private final Stmt.Function declaration;
+    // только захваченные переменные, см. Environment.capture
     private final Environment closure;
+    private final Captures captures;
     private final boolean isInitializer;
+
+    // метод класса, который переопределён в каком-нибудь подклассе (см. LoxClass)
+    volatile boolean overridden = false;
 }
@@ -0,0 +1,25 @@
+package com.lox;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+//
+// Результат spawn. interpreter - состояние выполнения потока функции.
+//
+class LoxFuture extends FutureTask<Object> {
+    LoxFuture(Interpreter interpreter, Callable<Object> callable)
+    {
+        super(callable);
+        this.interpreter = interpreter;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<future>";
+    }
+
+    final Interpreter interpreter;
+    // ошибку функции, которую ждали через await, уже получил вызывающий код
+    volatile boolean awaited = false;
+}
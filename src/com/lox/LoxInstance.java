@@ -1,9 +1,11 @@
 package com.lox;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
-class LoxInstance {
+@SuppressWarnings("serial")
+class LoxInstance implements Serializable {
     LoxInstance(LoxClass klass)
     {
         this.klass = klass;
@@ -11,8 +13,9 @@ class LoxInstance {
 
     Object get(Token name)
     {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        Object field = fields.get(name.lexeme);
+        if (field != null || fields.containsKey(name.lexeme)) {
+            return field;
         }
 
         LoxFunction method = klass.findMethod(this, name.lexeme);
@@ -23,6 +26,16 @@ class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    LoxClass klass()
+    {
+        return klass;
+    }
+
+    boolean hasField(String name)
+    {
+        return fields.containsKey(name);
+    }
+
     void set(Token name, Object value)
     {
         fields.put(name.lexeme, value);
@@ -0,0 +1,55 @@
+package com.lox;
+
+import com.lox.natives.MathLibrary;
+import com.lox.natives.NativeRegistry;
+
+import java.util.Locale;
+
+//
+// Функции MathLibrary, которые интерпретатор выполняет прямо на месте вызова:
+// без списка аргументов и без LoxCallable.call.
+//
+enum MathIntrinsic {
+    SQRT(1),
+    FLOOR(1),
+    ABS(1),
+    POW(2),
+    MIN(2),
+    MAX(2);
+
+    MathIntrinsic(int arity)
+    {
+        this.arity = arity;
+    }
+
+    static MathIntrinsic of(NativeRegistry.Entry entry)
+    {
+        if (entry.method == null || entry.method.getDeclaringClass() != MathLibrary.class) {
+            return null;
+        }
+        // Locale.ROOT: в турецкой локали "min" превратился бы в "MİN"
+        return valueOf(entry.method.getName().toUpperCase(Locale.ROOT));
+    }
+
+    double apply(double x)
+    {
+        switch (this) {
+            case SQRT: return Math.sqrt(x);
+            case FLOOR: return Math.floor(x);
+            case ABS: return Math.abs(x);
+        }
+        throw new IllegalStateException(this + " is not unary.");
+    }
+
+    double apply(double x, double y)
+    {
+        switch (this) {
+            case POW: return Math.pow(x, y);
+            case MIN: return Math.min(x, y);
+            case MAX: return Math.max(x, y);
+        }
+        throw new IllegalStateException(this + " is not binary.");
+    }
+
+    final int arity;
+}
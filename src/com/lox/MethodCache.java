@@ -0,0 +1,55 @@
+package com.lox;
+
+import java.util.Arrays;
+
+//
+// Вызов метода 'объект.имя(...)' без bind и без поиска по цепочке классов.
+//
+// По номеру места вызова (Expr.Call.site, выдаёт Resolver) запоминается
+// класс-владелец и его метод. Пока метод не переопределён ни в одном
+// подклассе (LoxFunction.overridden, отмечает конструктор LoxClass при
+// определении подкласса), для любого экземпляра владельца или его
+// подклассов вызывается именно он. Проверяется только, что получатель
+// в этом поддереве и что поле с тем же именем метод не скрывает.
+//
+// Кэш у каждого интерпретатора свой, как ConstantCache: дерево общее для
+// всех контекстов, и состояние в узле перезаписывалось бы при каждом
+// переходе между ними. Классы контекста живут не дольше его интерпретатора,
+// поэтому ссылки обычные.
+//
+final class MethodCache {
+    // null - вызов обычным путём (через Get и bind)
+    LoxFunction target(int site, LoxInstance receiver, String name)
+    {
+        if (receiver.hasField(name)) {
+            return null;
+        }
+
+        if (site < owners.length) {
+            LoxClass owner = owners[site];
+            LoxFunction method = methods[site];
+            if (owner != null && !method.overridden && receiver.klass().isSubclassOf(owner)) {
+                return method;
+            }
+        }
+
+        LoxClass owner = receiver.klass().declaringClass(name);
+        if (owner == null) {
+            return null;
+        }
+        LoxFunction method = owner.declaredMethod(name);
+        if (!method.overridden) {
+            if (site >= owners.length) {
+                int length = Math.max(owners.length * 2, site + 1);
+                owners = Arrays.copyOf(owners, length);
+                methods = Arrays.copyOf(methods, length);
+            }
+            owners[site] = owner;
+            methods[site] = method;
+        }
+        return method;
+    }
+
+    private LoxClass[] owners = new LoxClass[0];
+    private LoxFunction[] methods = new LoxFunction[0];
+}
@@ -0,0 +1,26 @@
+package com.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+//
+// Разобранный и разрешённый файл, подключаемый через import.
+// path - абсолютный путь, он же ключ модуля в Stmt.Import.module.
+//
+final class Module {
+    Module(String path, long modified, List<Stmt> statements, List<Stmt.Import> imports, List<LoxError> errors)
+    {
+        this.path = path;
+        this.modified = modified;
+        // изменяемый только для Instrumentation
+        this.statements = statements;
+        this.imports = Collections.unmodifiableList(imports);
+        this.errors = Collections.unmodifiableList(errors);
+    }
+
+    final String path;
+    final long modified;
+    final List<Stmt> statements;
+    final List<Stmt.Import> imports;
+    final List<LoxError> errors;
+}
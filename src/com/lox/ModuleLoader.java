@@ -0,0 +1,163 @@
+package com.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+//
+// Загрузка графа модулей.
+//
+// Каждый файл читается, разбирается и разрешается отдельной задачей
+// ForkJoinPool; задача сразу запускает задачи для своих import и не ждёт их,
+// поэтому независимые модули обрабатываются параллельно, а циклические
+// импорты не приводят к взаимной блокировке. Результаты собирает вызывающий
+// поток, обходя граф от корня.
+//
+// Разобранные модули кэшируются по пути и времени изменения файла.
+//
+final class ModuleLoader {
+    ModuleLoader(ForkJoinPool pool, GlobalSlots slots)
+    {
+        this.pool = pool;
+        this.slots = slots;
+    }
+
+    //
+    // Загружает все модули, достижимые из statements. Пути в import
+    // считаются от directory. Ошибки модулей передаются в reporter.
+    // path - абсолютный путь самого скрипта (null, если он не из файла):
+    // import его по кругу ссылается на уже выполняемый скрипт, а не
+    // загружает файл ещё раз.
+    //
+    Map<String, Module> load(List<Stmt> statements, Path directory, String path, ErrorReporter reporter)
+    {
+        Map<String, ForkJoinTask<Module>> tasks = new ConcurrentHashMap<>();
+        if (path != null) {
+            // задача-заглушка только занимает путь, её не запускают и не ждут
+            tasks.put(path, ForkJoinTask.adapt(() -> (Module)null));
+        }
+        List<Stmt.Import> roots = imports(statements, directory, tasks);
+        if (roots.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Module> modules = new LinkedHashMap<>();
+        if (path != null) {
+            modules.put(path, null);
+        }
+        Deque<Stmt.Import> pending = new ArrayDeque<>(roots);
+        Map<Stmt.Import, ErrorReporter> importers = new LinkedHashMap<>();
+        for (Stmt.Import stmt : roots) {
+            importers.put(stmt, reporter);
+        }
+
+        while (!pending.isEmpty()) {
+            Stmt.Import stmt = pending.poll();
+            ErrorReporter importer = importers.remove(stmt);
+            if (modules.containsKey(stmt.module)) {
+                continue;
+            }
+
+            Module module = tasks.get(stmt.module).join();
+            if (module == null) {
+                importer.error(stmt.path, "Cannot read module '" + stmt.path.literal + "'.");
+                modules.put(stmt.module, null);
+                continue;
+            }
+
+            modules.put(stmt.module, module);
+            for (LoxError error : module.errors) {
+                reporter.report(error);
+            }
+            ErrorReporter moduleReporter = error -> reporter.report(error.inModule(module.path));
+            for (Stmt.Import child : module.imports) {
+                pending.add(child);
+                importers.put(child, moduleReporter);
+            }
+        }
+
+        modules.values().removeIf(module -> module == null);
+        return modules;
+    }
+
+    //
+    // Заполняет Stmt.Import.module и запускает загрузку ещё не запущенных модулей.
+    //
+    private List<Stmt.Import> imports(List<Stmt> statements, Path directory, Map<String, ForkJoinTask<Module>> tasks)
+    {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Import)) {
+                continue;
+            }
+
+            Stmt.Import stmt = (Stmt.Import)statement;
+            Path path = directory.resolve((String)stmt.path.literal).toAbsolutePath().normalize();
+            stmt.module = path.toString();
+            tasks.computeIfAbsent(stmt.module, key -> pool.submit(new LoadTask(path, tasks)));
+            imports.add(stmt);
+        }
+        return imports;
+    }
+
+    @SuppressWarnings("serial")
+    private class LoadTask extends RecursiveTask<Module> {
+        LoadTask(Path path, Map<String, ForkJoinTask<Module>> tasks)
+        {
+            this.path = path;
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected Module compute()
+        {
+            long modified;
+            String source;
+            try {
+                modified = Files.getLastModifiedTime(path).toMillis();
+                Module cached = cache.get(path.toString());
+                if (cached != null && cached.modified == modified) {
+                    // import в разобранном модуле уже указывают на пути, осталось запустить загрузку
+                    for (Stmt.Import stmt : cached.imports) {
+                        tasks.computeIfAbsent(stmt.module, key -> pool.submit(new LoadTask(Path.of(key), tasks)));
+                    }
+                    return cached;
+                }
+                source = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return null;
+            }
+
+            List<LoxError> errors = new ArrayList<>();
+            ErrorReporter reporter = error -> errors.add(error.inModule(path.toString()));
+            List<Stmt> statements = LoxEngine.parse(source, reporter);
+            if (errors.isEmpty()) {
+                LoxEngine.resolve(statements, slots, reporter);
+            }
+
+            List<Stmt.Import> imports = imports(statements, path.getParent(), tasks);
+            Module module = new Module(path.toString(), modified, statements, imports, errors);
+            cache.put(module.path, module);
+            return module;
+        }
+
+        private final Path path;
+        private final Map<String, ForkJoinTask<Module>> tasks;
+    }
+
+    private final ForkJoinPool pool;
+    private final GlobalSlots slots;
+    private final Map<String, Module> cache = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,37 @@
+package com.lox;
+
+import com.lox.natives.NativeFunction;
+import com.lox.natives.NativeRegistry;
+
+class NativeCallable implements LoxCallable {
+    NativeCallable(NativeRegistry.Entry entry)
+    {
+        this.name = entry.name;
+        this.arity = entry.arity;
+        this.function = entry.function;
+        this.intrinsic = MathIntrinsic.of(entry);
+    }
+
+    @Override
+    public int arity()
+    {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments)
+    {
+        return function.call(interpreter, arguments);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<native fn>";
+    }
+
+    final String name;
+    private final int arity;
+    private final NativeFunction function;
+    final MathIntrinsic intrinsic;
+}
@@ -0,0 +1,206 @@
+package com.lox;
+
+import java.util.List;
+
+//
+// Строка исходника, к которой относится узел, или 0, если у узла нет
+// ни одного токена (литерал, пустой блок).
+//
+final class NodeLine implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    private static final NodeLine INSTANCE = new NodeLine();
+
+    static int of(Expr expr)
+    {
+        return expr.accept(INSTANCE);
+    }
+
+    static int of(Stmt stmt)
+    {
+        return stmt.accept(INSTANCE);
+    }
+
+    private static int first(List<? extends Stmt> stmts)
+    {
+        return stmts.isEmpty() ? 0 : of(stmts.get(0));
+    }
+
+    //
+    // Stmt.Visitor
+    //
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt)
+    {
+        return first(stmt.statements);
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt)
+    {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return of(stmt.expression);
+    }
+
+    @Override
+    public Integer visitForStmt(Stmt.For stmt)
+    {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt)
+    {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt)
+    {
+        return of(stmt.condition);
+    }
+
+    @Override
+    public Integer visitImportStmt(Stmt.Import stmt)
+    {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt)
+    {
+        return of(stmt.expression);
+    }
+
+    @Override
+    public Integer visitProbeStmt(Stmt.Probe stmt)
+    {
+        return of(stmt.statement);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt)
+    {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt)
+    {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt)
+    {
+        return stmt.keyword.line;
+    }
+
+    //
+    // Expr.Visitor
+    //
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr)
+    {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr)
+    {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr)
+    {
+        return expr.paren.line;
+    }
+
+    @Override
+    public Integer visitCompareLocalConstExpr(Expr.CompareLocalConst expr)
+    {
+        return of(expr.comparison);
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr)
+    {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitGetThisFieldExpr(Expr.GetThisField expr)
+    {
+        return of(expr.get);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr)
+    {
+        return expr.expressions.isEmpty() ? 0 : of(expr.expressions.get(0));
+    }
+
+    @Override
+    public Integer visitIncrementLocalExpr(Expr.IncrementLocal expr)
+    {
+        return of(expr.assignment);
+    }
+
+    @Override
+    public Integer visitInvokeMethodExpr(Expr.InvokeMethod expr)
+    {
+        return of(expr.call);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr)
+    {
+        return 0;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr)
+    {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitProbeExpr(Expr.Probe expr)
+    {
+        return of(expr.expression);
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr)
+    {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr)
+    {
+        return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr)
+    {
+        return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr)
+    {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr)
+    {
+        return expr.name.line;
+    }
+}
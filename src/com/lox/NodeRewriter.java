@@ -0,0 +1,12 @@
+package com.lox;
+
+//
+// Замена дочерних узлов дерева (Expr.replaceChildren, Stmt.replaceChildren).
+// Возвращает узел, который встанет на место исходного; обходить детей
+// исходного узла - забота реализации.
+//
+interface NodeRewriter {
+    Expr rewrite(Expr expr);
+
+    Stmt rewrite(Stmt stmt);
+}
@@ -1,7 +1,6 @@
 package com.lox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import static com.lox.TokenType.*;
 
@@ -60,11 +59,13 @@ class Parser {
     }
 
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
     private int current = 0;
 
-    Parser(List<Token> tokens)
+    Parser(List<Token> tokens, ErrorReporter reporter)
     {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     List<Stmt> parse()
@@ -91,9 +92,20 @@ class Parser {
         if (matchAny(VAR)) {
             return varDeclaration();
         }
+        if (matchAny(IMPORT)) {
+            return importDeclaration();
+        }
         return statement();
     }
 
+    private Stmt importDeclaration()
+    {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path string after 'import'.");
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt classDeclaration()
     {
         Token name = consume(IDENTIFIER, "Expect class name.");
@@ -153,6 +165,7 @@ class Parser {
 
     private Stmt forStatement()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -178,22 +191,7 @@ class Parser {
 
         Stmt body = statement();
 
-        if (increment !=  null) {
-            body = new Stmt.Block(Arrays.asList(
-                body,
-                new Stmt.Expression(increment)));
-        }
-
-        if (condition == null) {
-            condition = new Expr.Literal(true);
-        }
-        body = new Stmt.While(condition, body);
-
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        return new Stmt.For(keyword, initializer, condition, increment, body);
     }
 
     private Stmt ifStatement()
@@ -232,12 +230,13 @@ class Parser {
 
     private Stmt whileStatement()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after 'while' condition.");
 
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private List<Stmt> block()
@@ -528,7 +527,7 @@ class Parser {
 
     private ParseError error(Token token, String message)
     {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -544,6 +543,7 @@ class Parser {
                 case CLASS:
                 case FUN:
                 case VAR:
+                case IMPORT:
                 case FOR:
                 case IF:
                 case WHILE:
@@ -0,0 +1,24 @@
+package com.lox;
+
+//
+// Место, куда инструмент подключён: узел Expr.Probe или Stmt.Probe.
+// id - номер места в пределах одного подключения, от 0 подряд.
+//
+final class ProbeSite {
+    ProbeSite(Instrument instrument, int id, String module, int line, Object node)
+    {
+        this.instrument = instrument;
+        this.id = id;
+        this.module = module;
+        this.line = line;
+        this.node = node;
+    }
+
+    final Instrument instrument;
+    final int id;
+    // путь модуля или null для самого скрипта, как в LoxError
+    final String module;
+    final int line;
+    // исходный узел Expr или Stmt
+    final Object node;
+}
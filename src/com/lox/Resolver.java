@@ -1,8 +1,12 @@
 package com.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
@@ -19,9 +23,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         NONE,
     }
 
-    Resolver(Interpreter interpreter)
+    //
+    // Функция, тело которой сейчас разрешается.
+    // closureScope - индекс области видимости, окружение которой будет текущим
+    // в момент создания функции (для методов область 'this' не в счёт:
+    // её добавляет bind).
+    //
+    private static class FunctionScope {
+        FunctionScope(Stmt.Function declaration, int closureScope)
+        {
+            this.declaration = declaration;
+            this.closureScope = closureScope;
+        }
+
+        void capture(int depth, String name)
+        {
+            while (captures.size() <= depth) {
+                captures.add(new LinkedHashSet<String>());
+            }
+            captures.get(depth).add(name);
+        }
+
+        final Stmt.Function declaration;
+        final int closureScope;
+        final List<Set<String>> captures = new ArrayList<>();
+    }
+
+    Resolver(ErrorReporter reporter, GlobalSlots slots)
     {
-        this.interpreter = interpreter;
+        this.reporter = reporter;
+        this.slots = slots;
     }
 
     void resolve(List<Stmt> stmts)
@@ -31,6 +62,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    //
+    // После разрешения всего скрипта: глобальные переменные, которым в нём
+    // ничего не присваивается, читаются через ConstantCache.
+    //
+    void speculateConstants()
+    {
+        for (Expr.Variable read : globalReads) {
+            if (!assignedGlobals.contains(read.name.lexeme)) {
+                read.constant = true;
+            }
+        }
+        globalReads.clear();
+    }
+
     private void resolve(Stmt stmt)
     {
         stmt.accept(this);
@@ -51,11 +96,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void beginScope()
     {
         scopes.push(new HashMap<String, Boolean>());
+        declarations.push(new HashMap<String, Stmt>());
+        captured.push(new HashSet<String>());
     }
 
     private void endScope()
     {
         scopes.pop();
+        Map<String, Stmt> declared = declarations.pop();
+
+        // все замыкания, которые могут захватить переменные области, уже разрешены
+        for (String name : captured.pop()) {
+            Stmt declaration = declared.get(name);
+            if (declaration instanceof Stmt.Var) {
+                ((Stmt.Var)declaration).captured = true;
+            } else if (declaration instanceof Stmt.Function) {
+                ((Stmt.Function)declaration).captured = true;
+            } else if (declaration instanceof Stmt.Class) {
+                ((Stmt.Class)declaration).captured = true;
+            }
+        }
     }
 
     private void declare(Token name)
@@ -63,29 +123,64 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (scopes.isEmpty()) return;
         Map<String, Boolean> scope =  scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+            reporter.error(name, "Variable with this name already declared in this scope.");
         }
         scope.put(name.lexeme, false);
     }
 
+    private void declare(Token name, Stmt declaration)
+    {
+        declare(name);
+        if (!scopes.isEmpty()) {
+            declarations.peek().put(name.lexeme, declaration);
+        }
+    }
+
     private void define(Token name)
     {
         if (scopes.isEmpty()) return;
         scopes.peek().put(name.lexeme, true);
     }
 
-    private void resolveLocal(Expr expr, Token name)
+    //
+    // Возвращает глубину окружения с переменной относительно текущего
+    // или -1 для глобальной переменной.
+    //
+    private int resolveLocal(Token name)
     {
         for (int i = scopes.size() - 1; i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+                capture(i, name.lexeme);
+                return scopes.size() - 1 - i;
             }
         }
 
         //
         // если переменная не найдена, то она является глобальной
         //
+        return -1;
+    }
+
+    //
+    // Переменная из области scope используется в текущей функции. Если она
+    // объявлена снаружи, её захватывают все функции между местом использования
+    // и объявлением, а сама переменная должна жить в Upvalue.
+    //
+    private void capture(int scope, String name)
+    {
+        boolean isCaptured = false;
+        for (int i = functions.size() - 1; i >= 0; --i) {
+            FunctionScope function = functions.get(i);
+            if (scope > function.closureScope) {
+                break;
+            }
+            function.capture(function.closureScope - scope, name);
+            isCaptured = true;
+        }
+
+        if (isCaptured) {
+            this.captured.get(scope).add(name);
+        }
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type)
@@ -93,22 +188,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
+        // у метода между окружением класса и параметрами есть область 'this'
+        boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+        FunctionScope scope = new FunctionScope(function, scopes.size() - (isMethod ? 2 : 1));
+        functions.push(scope);
+
         beginScope();
         for (Token token : function.parameters) {
             declare(token);
             define(token);
         }
         resolve(function.body);
+        function.captures = captures(scope, captured.peek());
         endScope();
 
+        functions.pop();
+
         currentFunction = enclosingFunction;
     }
 
+    private Captures captures(FunctionScope scope, Set<String> capturedLocals)
+    {
+        boolean[] parameters = new boolean[scope.declaration.parameters.size()];
+        boolean anyParameter = false;
+        for (int i = 0; i < parameters.length; ++i) {
+            parameters[i] = capturedLocals.contains(scope.declaration.parameters.get(i).lexeme);
+            anyParameter |= parameters[i];
+        }
+        if (scope.captures.isEmpty() && !anyParameter) {
+            return Captures.NONE;
+        }
+
+        List<List<String>> names = new ArrayList<>();
+        for (Set<String> level : scope.captures) {
+            names.add(new ArrayList<>(level));
+        }
+        return new Captures(names, parameters);
+    }
+
     @Override
     public Void visitAssignExpr(Expr.Assign expr)
     {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = expr.depth == -1 ? slots.slot(expr.name.lexeme) : -1;
+        if (expr.depth == -1) {
+            assignedGlobals.add(expr.name.lexeme);
+        }
         return null;
     }
 
@@ -127,6 +253,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (Expr argument : expr.arguments) {
             resolve(argument);
         }
+        if (expr.callee instanceof Expr.Get) {
+            expr.site = slots.methodSite();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCompareLocalConstExpr(Expr.CompareLocalConst expr)
+    {
+        resolve(expr.comparison);
         return null;
     }
 
@@ -136,6 +272,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitGetThisFieldExpr(Expr.GetThisField expr)
+    {
+        resolve(expr.get);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr)
     {
@@ -143,6 +286,20 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIncrementLocalExpr(Expr.IncrementLocal expr)
+    {
+        resolve(expr.assignment);
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeMethodExpr(Expr.InvokeMethod expr)
+    {
+        resolve(expr.call);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr)
     {
@@ -157,6 +314,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitProbeExpr(Expr.Probe expr)
+    {
+        resolve(expr.expression);
+        return null;
+    }
+
     @Override
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.object);
@@ -167,22 +331,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
+            reporter.error(expr.keyword, "Cannot use 'super' outside of a class.");
         } else if (currentClass == ClassType.CLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            reporter.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
 
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
+        if (expr.depth > 0) {
+            // вызов через super читает ещё и 'this' из следующей области
+            capture(scopes.size() - expr.depth, "this");
+        }
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
-        if (currentClass != ClassType.CLASS) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
+        if (currentClass == ClassType.NONE) {
+            reporter.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -197,29 +365,56 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr)
     {
         if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+            reporter.error(expr.name, "Cannot read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        expr.slot = expr.depth == -1 ? slots.slot(expr.name.lexeme) : -1;
+        if (expr.depth == -1) {
+            globalReads.add(expr);
+        }
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
+        // блок без объявлений выполняется в окружении вокруг него
+        stmt.scoped = declaresNames(stmt.statements);
+        if (!stmt.scoped) {
+            resolve(stmt.statements);
+            return null;
+        }
+
         beginScope();
         resolve(stmt.statements);
         endScope();
         return null;
     }
 
+    //
+    // Объявления области - только её непосредственные инструкции. import
+    // здесь тоже считается, чтобы блок оставался областью и import в нём
+    // по-прежнему был ошибкой.
+    //
+    private static boolean declaresNames(List<Stmt> statements)
+    {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Var || stmt instanceof Stmt.Function
+                || stmt instanceof Stmt.Class || stmt instanceof Stmt.Import) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt)
     {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.superclass != null) {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
@@ -257,10 +452,83 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt)
+    {
+        // одна область на весь цикл, и только если инициализатор её объявляет
+        stmt.scoped = stmt.initializer instanceof Stmt.Var;
+        if (stmt.scoped) {
+            beginScope();
+        }
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (stmt.condition != null) {
+            resolve(stmt.condition);
+        }
+        resolve(stmt.body);
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+        if (stmt.scoped) {
+            endScope();
+        }
+
+        resolveCounter(stmt);
+        return null;
+    }
+
+    //
+    // Счётчик цикла: незахваченная переменная инициализатора, которую
+    // шаг меняет на число-литерал (i = i + 1, i = i - 2). Условие вида
+    // 'i < выражение' тоже отмечается, его интерпретатор сравнивает сам.
+    //
+    private void resolveCounter(Stmt.For stmt)
+    {
+        if (!(stmt.initializer instanceof Stmt.Var) || ((Stmt.Var)stmt.initializer).captured) return;
+        String name = ((Stmt.Var)stmt.initializer).name.lexeme;
+
+        if (!(stmt.increment instanceof Expr.Assign)) return;
+        Expr.Assign assign = (Expr.Assign)stmt.increment;
+        if (!assign.name.lexeme.equals(name) || assign.depth != 0 || !(assign.value instanceof Expr.Binary)) return;
+
+        Expr.Binary step = (Expr.Binary)assign.value;
+        if (!isCounter(step.left, name) || !(step.right instanceof Expr.Literal)) return;
+        Object stride = ((Expr.Literal)step.right).value;
+        if (!(stride instanceof Double)) return;
+
+        switch (step.operator.type) {
+            case PLUS:
+                stmt.stride = (double)stride;
+                break;
+            case MINUS:
+                stmt.stride = -(double)stride;
+                break;
+            default:
+                return;
+        }
+        stmt.counter = name;
+
+        if (stmt.condition instanceof Expr.Binary && isCounter(((Expr.Binary)stmt.condition).left, name)) {
+            TokenType compare = ((Expr.Binary)stmt.condition).operator.type;
+            if (compare == TokenType.LESS || compare == TokenType.LESS_EQUAL
+                || compare == TokenType.GREATER || compare == TokenType.GREATER_EQUAL) {
+                stmt.compare = compare;
+            }
+        }
+    }
+
+    private static boolean isCounter(Expr expr, String name)
+    {
+        return expr instanceof Expr.Variable
+            && ((Expr.Variable)expr).name.lexeme.equals(name)
+            && ((Expr.Variable)expr).depth == 0;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -277,6 +545,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt)
+    {
+        // модуль выполняется в глобальном окружении, поэтому только на верхнем уровне
+        if (!scopes.isEmpty()) {
+            reporter.error(stmt.keyword, "Import must be at top level.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitProbeStmt(Stmt.Probe stmt)
+    {
+        resolve(stmt.statement);
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
@@ -288,12 +573,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitReturnStmt(Stmt.Return stmt)
     {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Cannot return from top-level code.");
+            reporter.error(stmt.keyword, "Cannot return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Cannot return from an initializer.");
+                reporter.error(stmt.keyword, "Cannot return from an initializer.");
             }
 
             resolve(stmt.value);
@@ -304,7 +589,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt)
     {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -320,8 +605,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private final Interpreter interpreter;
+    private final ErrorReporter reporter;
+    private final GlobalSlots slots;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // объявление каждой локальной переменной и имена, захваченные замыканиями
+    private final Stack<Map<String, Stmt>> declarations = new Stack<>();
+    private final Stack<Set<String>> captured = new Stack<>();
+    private final Stack<FunctionScope> functions = new Stack<>();
+    private final List<Expr.Variable> globalReads = new ArrayList<>();
+    private final Set<String> assignedGlobals = new HashSet<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 }
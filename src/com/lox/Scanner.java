@@ -8,9 +8,10 @@ import java.util.Map;
 import static com.lox.TokenType.*;
 
 class Scanner {
-    Scanner(String source)
+    Scanner(String source, ErrorReporter reporter)
     {
         this.source = source;
+        this.reporter = reporter;
     }
 
     List<Token> scanTokens()
@@ -72,7 +73,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
                     break;
                 }
         }
@@ -89,7 +90,7 @@ class Scanner {
 
         // отсутствует закрывающая '"'
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
@@ -152,7 +153,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated comment.");
+            reporter.error(line, "Unterminated comment.");
         } else {
             // пропускаем поселовательность '*/'
             advance();
@@ -239,6 +240,7 @@ class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
         keywords.put("print", PRINT);
@@ -251,6 +253,7 @@ class Scanner {
     }
 
     private final String source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
@@ -0,0 +1,288 @@
+package com.lox;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+//
+// jlox serve: сервер выполнения скриптов на локальном сокете.
+//
+// Каждое соединение обслуживается виртуальным потоком; запросы в соединении
+// выполняются по очереди, каждый в новом LoxContext. Скомпилированные скрипты
+// кэшируются, поэтому повторные запросы не платят за разбор. Кэш живёт вместе
+// с LoxEngine, которым скрипты скомпилированы: когда он переполняется, сервер
+// заводит новый движок, и таблица глобальных ячеек старого уходит вместе с ним.
+//
+// Протокол (строки в UTF-8, '\n'):
+//   RUN <path>              выполнить файл (кэш по пути и времени изменения
+//                           файла и его модулей, import - от каталога файла)
+//   EVAL <n>\n<n байт>      выполнить исходник (кэш по тексту)
+//   STATS                   гистограмма задержек запросов
+// Ответ: "<STATUS> <n>\n" и n байт тела, STATUS - OK, ERROR или TIMEOUT.
+// Тело содержит вывод скрипта, а для ERROR/TIMEOUT ещё и ошибки.
+//
+class Server {
+    private static final int CACHE_LIMIT = 1024;
+
+    static int run(String[] args) throws IOException
+    {
+        int port = 7878;
+        long timeoutMillis = 5000;
+        Budget budget = Budget.UNLIMITED;
+
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--timeout-ms") && i + 1 < args.length) {
+                timeoutMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--max-steps") && i + 1 < args.length) {
+                budget = budget.withSteps(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--max-depth") && i + 1 < args.length) {
+                budget = budget.withCallDepth(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("--max-instances") && i + 1 < args.length) {
+                budget = budget.withInstances(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--stack-mb") && i + 1 < args.length) {
+                long size = Lox.stackSize(args[++i]);
+                if (size < 0) {
+                    System.err.println("Invalid --stack-mb value '" + args[i] + "' (expected 1.." + Lox.MAX_STACK_MB + ").");
+                    return 64;
+                }
+                budget = budget.withStackSize(size);
+            } else {
+                System.err.println("Unknown serve option '" + args[i] + "'.");
+                return 64;
+            }
+        }
+
+        new Server(timeoutMillis, budget).serve(port);
+        return 0;
+    }
+
+    Server(long timeoutMillis, Budget budget)
+    {
+        this.timeoutMillis = timeoutMillis;
+        this.budget = budget;
+    }
+
+    void serve(int port) throws IOException
+    {
+        try (ServerSocket listener = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.err.println("jlox serve: listening on " + listener.getLocalSocketAddress());
+            while (true) {
+                Socket socket = listener.accept();
+                connections.submit(() -> handle(socket));
+            }
+        } finally {
+            watchdog.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket)
+    {
+        try (Socket connection = socket) {
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+
+            String request;
+            while ((request = readLine(in)) != null) {
+                if (request.isEmpty()) {
+                    continue;
+                }
+                respond(out, request, in);
+            }
+        } catch (IOException e) {
+            // клиент отключился
+        }
+    }
+
+    private void respond(OutputStream out, String request, InputStream in) throws IOException
+    {
+        if (request.equals("STATS")) {
+            send(out, "OK", latencies.render());
+            return;
+        }
+
+        long start = System.nanoTime();
+        Generation current = generation();
+        CompiledScript script;
+        if (request.startsWith("RUN ")) {
+            Path path = Paths.get(request.substring(4).trim());
+            if (!Files.isReadable(path)) {
+                send(out, "ERROR", "Cannot read '" + path + "'.\n");
+                return;
+            }
+            script = compileFile(current, path);
+        } else if (request.startsWith("EVAL ")) {
+            int length;
+            try {
+                length = Integer.parseInt(request.substring(5).trim());
+            } catch (NumberFormatException e) {
+                send(out, "ERROR", "Bad EVAL length in '" + request + "'.\n");
+                return;
+            }
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                throw new IOException("Truncated EVAL request.");
+            }
+            String source = new String(bytes, StandardCharsets.UTF_8);
+            script = compile(current, source);
+        } else {
+            send(out, "ERROR", "Unknown request '" + request + "'.\n");
+            return;
+        }
+
+        if (script.hasErrors()) {
+            send(out, "ERROR", lines(script.errors()));
+            latencies.record(System.nanoTime() - start);
+            return;
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LoxContext context = current.engine.newContext(new PrintStream(output, true, StandardCharsets.UTF_8), budget);
+        ScheduledFuture<?> timeout = watchdog.schedule(context::cancel, timeoutMillis, TimeUnit.MILLISECONDS);
+        boolean ok = context.run(script);
+        boolean timedOut = !timeout.cancel(false);
+        latencies.record(System.nanoTime() - start);
+
+        String body = output.toString(StandardCharsets.UTF_8);
+        if (ok) {
+            send(out, "OK", body);
+        } else {
+            send(out, timedOut ? "TIMEOUT" : "ERROR", body + lines(context.errors()));
+        }
+    }
+
+    private static CompiledScript compile(Generation current, String source)
+    {
+        String key = "source:" + source;
+        Cached cached = current.cache.get(key);
+        if (cached != null) {
+            return cached.script;
+        }
+        CompiledScript script = current.engine.compile(source);
+        current.cache.put(key, new Cached(script, 0));
+        return script;
+    }
+
+    //
+    // import считаются от каталога файла. Скрипт из кэша годится, пока не
+    // изменился ни сам файл, ни один из подключённых им модулей.
+    //
+    private static CompiledScript compileFile(Generation current, Path path) throws IOException
+    {
+        Path file = path.toAbsolutePath().normalize();
+        String key = "file:" + file;
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        Cached cached = current.cache.get(key);
+        if (cached != null && cached.modified == modified && modulesCurrent(cached.script)) {
+            return cached.script;
+        }
+        CompiledScript script = current.engine.compileFile(file);
+        current.cache.put(key, new Cached(script, modified));
+        return script;
+    }
+
+    private static boolean modulesCurrent(CompiledScript script)
+    {
+        for (Module module : script.modules.values()) {
+            try {
+                if (Files.getLastModifiedTime(Paths.get(module.path)).toMillis() != module.modified) {
+                    return false;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //
+    // Скрипты запроса компилируются и выполняются одним движком: номера
+    // глобальных ячеек в узлах годятся только для контекстов того же движка.
+    // Запросы, уже взявшие старое поколение, спокойно доработают на нём.
+    //
+    private synchronized Generation generation()
+    {
+        if (generation.cache.size() >= CACHE_LIMIT) {
+            generation = new Generation();
+        }
+        return generation;
+    }
+
+    private static final class Generation {
+        final LoxEngine engine = new LoxEngine();
+        final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    }
+
+    // modified - время изменения корневого файла для RUN, 0 для EVAL
+    private static final class Cached {
+        Cached(CompiledScript script, long modified)
+        {
+            this.script = script;
+            this.modified = modified;
+        }
+
+        final CompiledScript script;
+        final long modified;
+    }
+
+    private static String lines(Iterable<LoxError> errors)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (LoxError error : errors) {
+            builder.append(error).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static void send(OutputStream out, String status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write((status + " " + bytes.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private final long timeoutMillis;
+    private final Budget budget;
+    private Generation generation = new Generation();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jlox-serve-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+}
@@ -0,0 +1,234 @@
+package com.lox;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.io.WriteAbortedException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+//
+// Снимок глобального состояния интерпретатора: jlox --snapshot-out после
+// выполнения скрипта-пролога, jlox --snapshot-in перед выполнением
+// основного скрипта вместо пролога.
+//
+// Глобальные переменные сохраняются Java-сериализацией вместе со всем,
+// что из них достижимо: функции с деревом тел и замыканиями, классы,
+// экземпляры, массивы и map. Нативные функции записываются по имени и при
+// чтении берутся из движка. Номера ячеек глобальных переменных у каждого
+// движка свои, поэтому в прочитанном дереве они назначаются по таблице
+// движка, который читает снимок.
+// Каналы и задачи (spawn) в снимок не попадают.
+//
+// Формат - классы интерпретатора как есть: снимок читается только той же
+// сборкой jlox, иначе чтение сообщает, что снимок устарел. Поэтому у классов
+// снимка нет serialVersionUID (@SuppressWarnings("serial")): проверкой
+// сборки служит номер по умолчанию.
+//
+// Снимок может прийти откуда угодно (LoxContext.readSnapshot), поэтому при
+// чтении допускаются только классы интерпретатора, коллекции java.util из
+// образа и массивы примитивов, а глубина и длина массивов ограничены.
+//
+final class Snapshot {
+    private static final int MAX_DEPTH = 4000;
+    private static final int MAX_ARRAY_LENGTH = 1 << 24;
+    private static final Set<String> ALLOWED_CLASSES = Set.of(
+        "java.lang.Object",
+        "java.lang.Boolean",
+        "java.lang.Double",
+        "java.lang.Number",
+        "java.lang.Enum",
+        "java.util.ArrayList",
+        "java.util.Collections$EmptyList",
+        "java.util.HashMap",
+        "java.util.HashSet",
+        "java.util.LinkedHashMap",
+        "java.util.LinkedHashSet",
+        "java.util.Map$Entry",
+        "java.util.TreeSet",
+        // ошибка, которую ObjectOutputStream пишет в прерванный снимок
+        "java.io.IOException",
+        "java.io.NotSerializableException",
+        "java.io.ObjectStreamException",
+        "java.lang.Exception",
+        "java.lang.StackTraceElement",
+        "java.lang.Throwable"
+    );
+
+    private Snapshot()
+    {
+    }
+
+    static void write(Interpreter interpreter, OutputStream stream) throws IOException
+    {
+        Map<String, Object> globals = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> global : interpreter.globals.globalValues().entrySet()) {
+            Object value = global.getValue();
+            // стандартные нативные функции новый интерпретатор определит сам
+            if (value instanceof NativeCallable && ((NativeCallable)value).name.equals(global.getKey())) {
+                continue;
+            }
+            globals.put(global.getKey(), value);
+        }
+
+        try (Output out = new Output(stream)) {
+            out.writeObject(new Image(globals, new TreeSet<>(interpreter.imported)));
+        } catch (NotSerializableException e) {
+            throw new IOException("Cannot snapshot a value of type " + e.getMessage() + ".", e);
+        } catch (StackOverflowError e) {
+            // сериализация рекурсивна: длинный связный список упирается в стек
+            throw new IOException("Values are nested too deeply to snapshot.", e);
+        }
+    }
+
+    static void read(Interpreter interpreter, List<NativeCallable> natives, InputStream stream) throws IOException
+    {
+        Map<String, NativeCallable> byName = new HashMap<>();
+        for (NativeCallable function : natives) {
+            byName.put(function.name, function);
+        }
+
+        Image image;
+        Filter filter = new Filter();
+        try (Input in = new Input(stream, byName, interpreter.globals, filter)) {
+            image = (Image)in.readObject();
+        } catch (StreamCorruptedException e) {
+            throw new IOException("Not a jlox snapshot.", e);
+        } catch (WriteAbortedException e) {
+            throw new IOException("Snapshot is incomplete: writing it failed.", e);
+        } catch (EOFException e) {
+            throw new IOException("Snapshot is truncated.", e);
+        } catch (InvalidClassException | ClassNotFoundException | ClassCastException e) {
+            if (filter.rejected != null) {
+                throw new IOException("Snapshot contains " + filter.rejected + ".", e);
+            }
+            throw new IOException("Snapshot was written by a different build of jlox.", e);
+        } catch (StackOverflowError e) {
+            throw new IOException("Snapshot is nested too deeply to read.", e);
+        }
+
+        for (Map.Entry<String, Object> global : image.globals.entrySet()) {
+            interpreter.globals.define(global.getKey(), global.getValue());
+        }
+        interpreter.imported.addAll(image.imported);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Image implements Serializable {
+        Image(Map<String, Object> globals, Set<String> imported)
+        {
+            this.globals = globals;
+            this.imported = imported;
+        }
+
+        final Map<String, Object> globals;
+        final Set<String> imported;
+    }
+
+    // нативная функция в снимке
+    @SuppressWarnings("serial")
+    private static final class NativeName implements Serializable {
+        NativeName(String name)
+        {
+            this.name = name;
+        }
+
+        final String name;
+    }
+
+    private static final class Output extends ObjectOutputStream {
+        Output(OutputStream stream) throws IOException
+        {
+            super(stream);
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object)
+        {
+            if (object instanceof NativeCallable) {
+                return new NativeName(((NativeCallable)object).name);
+            }
+            return object;
+        }
+    }
+
+    private static final class Input extends ObjectInputStream {
+        Input(InputStream stream, Map<String, NativeCallable> natives, Environment globals, Filter filter) throws IOException
+        {
+            super(stream);
+            this.natives = natives;
+            this.globals = globals;
+            enableResolveObject(true);
+            setObjectInputFilter(filter);
+        }
+
+        @Override
+        protected Object resolveObject(Object object) throws ObjectStreamException
+        {
+            if (object instanceof NativeName) {
+                NativeCallable function = natives.get(((NativeName)object).name);
+                if (function == null) {
+                    throw new InvalidClassException("Native function '" + ((NativeName)object).name + "' is not defined.");
+                }
+                return function;
+            }
+            if (object instanceof Expr.Variable && ((Expr.Variable)object).depth == -1) {
+                ((Expr.Variable)object).slot = globals.globalSlot(((Expr.Variable)object).name.lexeme);
+            } else if (object instanceof Expr.Assign && ((Expr.Assign)object).depth == -1) {
+                ((Expr.Assign)object).slot = globals.globalSlot(((Expr.Assign)object).name.lexeme);
+            } else if (object instanceof Expr.Call && ((Expr.Call)object).site >= 0) {
+                // номера мест вызова тоже принадлежат движку, писавшему снимок
+                ((Expr.Call)object).site = globals.methodSite();
+            }
+            return object;
+        }
+
+        private final Map<String, NativeCallable> natives;
+        private final Environment globals;
+    }
+
+    private static final class Filter implements ObjectInputFilter {
+        @Override
+        public Status checkInput(FilterInfo info)
+        {
+            if (info.depth() > MAX_DEPTH) {
+                rejected = "values nested deeper than " + MAX_DEPTH + " levels";
+                return Status.REJECTED;
+            }
+            if (info.arrayLength() > MAX_ARRAY_LENGTH) {
+                rejected = "an array longer than " + MAX_ARRAY_LENGTH + " elements";
+                return Status.REJECTED;
+            }
+
+            Class<?> type = info.serialClass();
+            if (type == null) {
+                return Status.UNDECIDED;
+            }
+            while (type.isArray()) {
+                type = type.getComponentType();
+            }
+            if (type.isPrimitive() || type.getName().startsWith("com.lox.") || ALLOWED_CLASSES.contains(type.getName())) {
+                return Status.ALLOWED;
+            }
+            rejected = "a value of type " + type.getName();
+            return Status.REJECTED;
+        }
+
+        // причина отказа для сообщения об ошибке
+        String rejected = null;
+    }
+}
@@ -1,15 +1,20 @@
 package com.lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Stmt {
+@SuppressWarnings("serial")
+abstract class Stmt implements Serializable {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
         R visitClassStmt(Class stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitForStmt(For stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
+        R visitImportStmt(Import stmt);
         R visitPrintStmt(Print stmt);
+        R visitProbeStmt(Probe stmt);
         R visitReturnStmt(Return stmt);
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
@@ -22,9 +27,16 @@ abstract class Stmt {
 
         final List<Stmt> statements;
 
+        // заполняет Resolver
+        boolean scoped = true;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitBlockStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            for (int i = 0; i < statements.size(); ++i) statements.set(i, rewriter.rewrite(statements.get(i)));
+        }
     }
 
     static class Class extends Stmt {
@@ -38,9 +50,17 @@ abstract class Stmt {
         final Expr.Variable superclass;
         final List<Stmt.Function> methods;
 
+        // заполняет Resolver
+        boolean captured = false;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitClassStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (superclass != null) superclass.replaceChildren(rewriter);
+            for (Stmt.Function node : methods) node.replaceChildren(rewriter);
+        }
     }
 
     static class Expression extends Stmt {
@@ -48,11 +68,48 @@ abstract class Stmt {
             this.expression = expression;
         }
 
-        final Expr expression;
+        Expr expression;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (expression != null) expression = rewriter.rewrite(expression);
+        }
+    }
+
+    static class For extends Stmt {
+        For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.keyword = keyword;
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        final Token keyword;
+        Stmt initializer;
+        Expr condition;
+        Expr increment;
+        Stmt body;
+
+        // заполняет Resolver
+        String counter = null;
+        double stride = 0;
+        TokenType compare = null;
+        boolean scoped = true;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (initializer != null) initializer = rewriter.rewrite(initializer);
+            if (condition != null) condition = rewriter.rewrite(condition);
+            if (increment != null) increment = rewriter.rewrite(increment);
+            if (body != null) body = rewriter.rewrite(body);
+        }
     }
 
     static class Function extends Stmt {
@@ -66,9 +123,17 @@ abstract class Stmt {
         final List<Token> parameters;
         final List<Stmt> body;
 
+        // заполняет Resolver
+        boolean captured = false;
+        Captures captures = Captures.NONE;
+
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            for (int i = 0; i < body.size(); ++i) body.set(i, rewriter.rewrite(body.get(i)));
+        }
     }
 
     static class If extends Stmt {
@@ -78,13 +143,39 @@ abstract class Stmt {
             this.elseBranch = elseBranch;
         }
 
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+        Expr condition;
+        Stmt thenBranch;
+        Stmt elseBranch;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitIfStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (condition != null) condition = rewriter.rewrite(condition);
+            if (thenBranch != null) thenBranch = rewriter.rewrite(thenBranch);
+            if (elseBranch != null) elseBranch = rewriter.rewrite(elseBranch);
+        }
+    }
+
+    static class Import extends Stmt {
+        Import(Token keyword, Token path) {
+            this.keyword = keyword;
+            this.path = path;
+        }
+
+        final Token keyword;
+        final Token path;
+
+        // заполняет Resolver
+        String module = null;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitImportStmt(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+        }
     }
 
     static class Print extends Stmt {
@@ -92,11 +183,33 @@ abstract class Stmt {
             this.expression = expression;
         }
 
-        final Expr expression;
+        Expr expression;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitPrintStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (expression != null) expression = rewriter.rewrite(expression);
+        }
+    }
+
+    static class Probe extends Stmt {
+        Probe(Stmt statement, ProbeSite site) {
+            this.statement = statement;
+            this.site = site;
+        }
+
+        Stmt statement;
+        final ProbeSite site;
+
+        <R> R accept(Visitor <R> visitor) {
+            return visitor.visitProbeStmt(this);
+        }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (statement != null) statement = rewriter.rewrite(statement);
+        }
     }
 
     static class Return extends Stmt {
@@ -106,11 +219,15 @@ abstract class Stmt {
         }
 
         final Token keyword;
-        final Expr value;
+        Expr value;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitReturnStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (value != null) value = rewriter.rewrite(value);
+        }
     }
 
     static class Var extends Stmt {
@@ -120,26 +237,42 @@ abstract class Stmt {
         }
 
         final Token name;
-        final Expr initializer;
+        Expr initializer;
+
+        // заполняет Resolver
+        boolean captured = false;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitVarStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (initializer != null) initializer = rewriter.rewrite(initializer);
+        }
     }
 
     static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
 
-        final Expr condition;
-        final Stmt body;
+        final Token keyword;
+        Expr condition;
+        Stmt body;
 
         <R> R accept(Visitor <R> visitor) {
             return visitor.visitWhileStmt(this);
         }
+
+        void replaceChildren(NodeRewriter rewriter) {
+            if (condition != null) condition = rewriter.rewrite(condition);
+            if (body != null) body = rewriter.rewrite(body);
+        }
     }
 
     abstract <R> R accept(Visitor<R> visitor);
+
+    abstract void replaceChildren(NodeRewriter rewriter);
 }
@@ -0,0 +1,133 @@
+package com.lox;
+
+import java.util.List;
+
+//
+// Замена частых сочетаний узлов одним узлом, который интерпретатор
+// выполняет за один вызов visitor вместо трёх-четырёх:
+//
+//   x = x + 1, x = x - 2  (x локальная)    -> IncrementLocal
+//   x < 10, x >= 0        (x локальная)    -> CompareLocalConst
+//   this.поле                              -> GetThisField
+//   объект.метод(...)                      -> InvokeMethod (через MethodCache)
+//
+// Проход идёт после Resolver: нужны глубины переменных. Исходный узел
+// остаётся внутри нового, по нему печатает AstPrinter, и к нему же
+// интерпретатор откатывается, если значения не числа, чтобы ошибки были
+// прежними. Внутренние узлы слитого узла (переменные, литералы) инструмент
+// отдельно не видит.
+//
+final class Superinstructions implements NodeRewriter {
+    private Superinstructions()
+    {
+    }
+
+    static void rewrite(List<Stmt> statements)
+    {
+        Superinstructions rewriter = new Superinstructions();
+        for (int i = 0; i < statements.size(); ++i) {
+            statements.set(i, rewriter.rewrite(statements.get(i)));
+        }
+    }
+
+    @Override
+    public Expr rewrite(Expr expr)
+    {
+        if (expr instanceof Expr.Call && ((Expr.Call)expr).site >= 0) {
+            // сам Get остаётся как есть, его разбирает InvokeMethod
+            Expr.Call call = (Expr.Call)expr;
+            call.callee.replaceChildren(this);
+            for (int i = 0; i < call.arguments.size(); ++i) {
+                call.arguments.set(i, rewrite(call.arguments.get(i)));
+            }
+            return new Expr.InvokeMethod(call);
+        }
+
+        expr.replaceChildren(this);
+
+        if (expr instanceof Expr.Assign) {
+            return incrementLocal((Expr.Assign)expr);
+        }
+        if (expr instanceof Expr.Binary) {
+            return compareLocalConst((Expr.Binary)expr);
+        }
+        if (expr instanceof Expr.Get && ((Expr.Get)expr).object instanceof Expr.This) {
+            return new Expr.GetThisField((Expr.Get)expr, ((Expr.This)((Expr.Get)expr).object).depth);
+        }
+        return expr;
+    }
+
+    @Override
+    public Stmt rewrite(Stmt stmt)
+    {
+        if (stmt instanceof Stmt.For && ((Stmt.For)stmt).counter != null) {
+            // шаг и условие счётчика интерпретатор и так выполняет сам
+            Stmt.For loop = (Stmt.For)stmt;
+            if (loop.initializer != null) {
+                loop.initializer = rewrite(loop.initializer);
+            }
+            if (loop.condition != null && loop.compare == null) {
+                loop.condition = rewrite(loop.condition);
+            } else if (loop.condition != null) {
+                Expr.Binary bound = (Expr.Binary)loop.condition;
+                bound.right = rewrite(bound.right);
+            }
+            loop.body = rewrite(loop.body);
+            return stmt;
+        }
+
+        stmt.replaceChildren(this);
+        return stmt;
+    }
+
+    private static Expr incrementLocal(Expr.Assign assign)
+    {
+        if (assign.depth == -1 || !(assign.value instanceof Expr.Binary)) {
+            return assign;
+        }
+        Expr.Binary step = (Expr.Binary)assign.value;
+        if (!isLocal(step.left, assign.name.lexeme, assign.depth) || !isNumber(step.right)) {
+            return assign;
+        }
+
+        double delta = (double)((Expr.Literal)step.right).value;
+        switch (step.operator.type) {
+            case PLUS:
+                return new Expr.IncrementLocal(assign, delta);
+            case MINUS:
+                return new Expr.IncrementLocal(assign, -delta);
+            default:
+                return assign;
+        }
+    }
+
+    private static Expr compareLocalConst(Expr.Binary binary)
+    {
+        if (!(binary.left instanceof Expr.Variable) || ((Expr.Variable)binary.left).depth == -1 || !isNumber(binary.right)) {
+            return binary;
+        }
+
+        switch (binary.operator.type) {
+            case LESS:
+            case LESS_EQUAL:
+            case GREATER:
+            case GREATER_EQUAL:
+                Expr.Variable local = (Expr.Variable)binary.left;
+                return new Expr.CompareLocalConst(binary, local.name, local.depth, (double)((Expr.Literal)binary.right).value);
+            default:
+                return binary;
+        }
+    }
+
+    private static boolean isLocal(Expr expr, String name, int depth)
+    {
+        return expr instanceof Expr.Variable
+            && ((Expr.Variable)expr).name.lexeme.equals(name)
+            && ((Expr.Variable)expr).depth == depth;
+    }
+
+    private static boolean isNumber(Expr expr)
+    {
+        return expr instanceof Expr.Literal && ((Expr.Literal)expr).value instanceof Double;
+    }
+}
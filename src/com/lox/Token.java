@@ -1,6 +1,9 @@
 package com.lox;
 
-class Token {
+import java.io.Serializable;
+
+@SuppressWarnings("serial")
+class Token implements Serializable {
     Token(TokenType type, String lexeme, Object literal, int line)
     {
         this.type = type;
@@ -0,0 +1,19 @@
+package com.lox;
+
+import java.io.Serializable;
+
+//
+// Ячейка захваченной переменной. Окружение, где переменная объявлена,
+// и все замыкания, которые её захватили, держат одну и ту же ячейку.
+// Ячейки глобальных переменных тоже Upvalue. Поле volatile: замыкание
+// может выполняться в другом потоке (spawn).
+//
+@SuppressWarnings("serial")
+class Upvalue implements Serializable {
+    Upvalue(Object value)
+    {
+        this.value = value;
+    }
+
+    volatile Object value;
+}
@@ -0,0 +1,111 @@
+package com.lox.natives;
+
+//
+// Массивы: array(n) создаёт массив из n nil, индексы с нуля.
+// fill, copy и sort работают сразу со всем хранилищем массива (см. LoxArray).
+// length, get и set принимают также map (см. MapLibrary).
+//
+public final class ArrayLibrary {
+    private ArrayLibrary()
+    {
+    }
+
+    @LoxNative
+    public static Object array(double length)
+    {
+        if (length < 0 || length != Math.floor(length) || length > Integer.MAX_VALUE) {
+            throw new NativeError("Array length must be a non-negative integer.");
+        }
+        return LoxArray.ofLength((int)length);
+    }
+
+    @LoxNative
+    public static double length(Object collection)
+    {
+        if (collection instanceof LoxMap) {
+            return ((LoxMap)collection).size();
+        }
+        return array("length", collection).length();
+    }
+
+    @LoxNative
+    public static Object get(Object collection, Object key)
+    {
+        if (collection instanceof LoxMap) {
+            return ((LoxMap)collection).get(MapLibrary.key("get", key));
+        }
+        LoxArray values = array("get", collection);
+        return values.get(index("get", values, key));
+    }
+
+    @LoxNative
+    public static void set(Object collection, Object key, Object value)
+    {
+        if (collection instanceof LoxMap) {
+            ((LoxMap)collection).put(MapLibrary.key("set", key), value);
+            return;
+        }
+        LoxArray values = array("set", collection);
+        values.set(index("set", values, key), value);
+    }
+
+    @LoxNative
+    public static void fill(Object array, Object value)
+    {
+        array("fill", array).fill(value);
+    }
+
+    // copy(source, sourceIndex, target, targetIndex, count), как System.arraycopy
+    @LoxNative
+    public static void copy(Object source, double sourceIndex, Object target, double targetIndex, double count)
+    {
+        LoxArray from = array("copy", source);
+        if (!(target instanceof LoxArray)) {
+            throw new NativeError("Argument 3 of 'copy' must be an array.");
+        }
+        LoxArray to = (LoxArray)target;
+
+        if (!isInteger(sourceIndex) || !isInteger(targetIndex) || !isInteger(count)
+            || sourceIndex < 0 || targetIndex < 0 || count < 0
+            || sourceIndex + count > from.length() || targetIndex + count > to.length()) {
+            throw new NativeError("Range of 'copy' is out of bounds.");
+        }
+        LoxArray.copy(from, (int)sourceIndex, to, (int)targetIndex, (int)count);
+    }
+
+    @LoxNative
+    public static void sort(Object array)
+    {
+        array("sort", array).sort();
+    }
+
+    private static boolean isInteger(double value)
+    {
+        return value == Math.floor(value) && !Double.isInfinite(value);
+    }
+
+    static LoxArray array(String name, Object argument)
+    {
+        if (!(argument instanceof LoxArray)) {
+            throw new NativeError("Argument 1 of '" + name + "' must be an array.");
+        }
+        return (LoxArray)argument;
+    }
+
+    private static int index(String name, LoxArray array, Object key)
+    {
+        if (!(key instanceof Double)) {
+            throw new NativeError("Argument 2 of '" + name + "' must be a number.");
+        }
+        double index = (double)key;
+        if (index < 0 || index >= array.length() || !isInteger(index)) {
+            throw new NativeError("Index " + format(index) + " of '" + name + "' is out of bounds for length " + array.length() + ".");
+        }
+        return (int)index;
+    }
+
+    private static String format(double value)
+    {
+        return isInteger(value) ? String.valueOf((long)value) : String.valueOf(value);
+    }
+}
@@ -0,0 +1,63 @@
+package com.lox.natives;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+//
+// Ограниченный канал между потоками Lox. send блокируется, пока канал полон,
+// receive - пока пуст. Передача через канал публикует значение безопасно:
+// всё, что отправитель записал до send, получатель видит после receive.
+//
+public final class Channel {
+    private static final Object NIL = new Object();
+    // как часто ожидающий поток проверяет отмену
+    private static final long POLL_MILLIS = 10;
+
+    Channel(int capacity)
+    {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(LoxRuntime runtime, Object value)
+    {
+        Object item = value == null ? NIL : value;
+        try {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkCancelled(runtime);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Execution cancelled.");
+        }
+    }
+
+    Object receive(LoxRuntime runtime)
+    {
+        try {
+            Object item;
+            while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkCancelled(runtime);
+            }
+            return item == NIL ? null : item;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeError("Execution cancelled.");
+        }
+    }
+
+    private static void checkCancelled(LoxRuntime runtime)
+    {
+        if (runtime.isCancelled()) {
+            throw new NativeError("Execution cancelled.");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<channel>";
+    }
+
+    private final BlockingQueue<Object> queue;
+}
@@ -0,0 +1,62 @@
+package com.lox.natives;
+
+//
+// Конкурентность в Lox:
+//
+//     var results = channel(10);
+//     fun worker() { send(results, "done"); return 42; }
+//     var f = spawn(worker);
+//     print receive(results);
+//     print await(f);
+//
+// Функции spawn выполняются на виртуальных потоках и видят те же глобальные
+// переменные. Поля экземпляров не синхронизируются - объекты между потоками
+// передаются через каналы или результат await. Запуск скрипта завершается
+// только после всех запущенных им функций.
+//
+public final class ConcurrencyLibrary {
+    private ConcurrencyLibrary()
+    {
+    }
+
+    @LoxNative
+    public static Object spawn(LoxRuntime runtime, Object function)
+    {
+        return runtime.spawn(function);
+    }
+
+    @LoxNative
+    public static Object await(LoxRuntime runtime, Object future)
+    {
+        return runtime.await(future);
+    }
+
+    @LoxNative
+    public static Object channel(double capacity)
+    {
+        if (capacity < 1 || capacity != Math.floor(capacity) || capacity > Integer.MAX_VALUE) {
+            throw new NativeError("Channel capacity must be a positive integer.");
+        }
+        return new Channel((int)capacity);
+    }
+
+    @LoxNative
+    public static void send(LoxRuntime runtime, Object channel, Object value)
+    {
+        channel("send", channel).send(runtime, value);
+    }
+
+    @LoxNative
+    public static Object receive(LoxRuntime runtime, Object channel)
+    {
+        return channel("receive", channel).receive(runtime);
+    }
+
+    private static Channel channel(String name, Object argument)
+    {
+        if (!(argument instanceof Channel)) {
+            throw new NativeError("Argument 1 of '" + name + "' must be a channel.");
+        }
+        return (Channel)argument;
+    }
+}
@@ -0,0 +1,21 @@
+package com.lox.natives;
+
+public final class CoreLibrary {
+    private CoreLibrary()
+    {
+    }
+
+    // секунды с начала эпохи, разрешение - миллисекунды
+    @LoxNative
+    public static double clock()
+    {
+        return (double)System.currentTimeMillis() / 1000.0;
+    }
+
+    // монотонное время в наносекундах, годится только для измерения интервалов
+    @LoxNative
+    public static double nanoClock()
+    {
+        return (double)System.nanoTime();
+    }
+}
@@ -0,0 +1,214 @@
+package com.lox.natives;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+//
+// Массив Lox фиксированной длины.
+//
+// Пока все элементы - числа или nil, массив хранится в double[] (nil - NaN
+// с отдельной полезной нагрузкой, арифметика такой NaN не порождает).
+// Первая запись другого значения переводит массив в Object[] навсегда,
+// кроме fill, который может вернуть его в double[].
+//
+@SuppressWarnings("serial")
+public final class LoxArray implements Serializable {
+    private static final long NIL_BITS = 0x7ff8_dead_0000_0000L;
+    private static final double NIL = Double.longBitsToDouble(NIL_BITS);
+
+    private LoxArray(double[] numbers, Object[] objects)
+    {
+        this.numbers = numbers;
+        this.objects = objects;
+    }
+
+    // массив из length элементов nil
+    static LoxArray ofLength(int length)
+    {
+        double[] numbers = new double[length];
+        Arrays.fill(numbers, NIL);
+        return new LoxArray(numbers, null);
+    }
+
+    // массив из элементов values (без копирования, если есть не числа)
+    static LoxArray of(Object[] values)
+    {
+        for (Object value : values) {
+            if (value != null && !(value instanceof Double)) {
+                return new LoxArray(null, values);
+            }
+        }
+
+        double[] numbers = new double[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            numbers[i] = values[i] == null ? NIL : (double)values[i];
+        }
+        return new LoxArray(numbers, null);
+    }
+
+    public int length()
+    {
+        return numbers != null ? numbers.length : objects.length;
+    }
+
+    public Object get(int index)
+    {
+        if (numbers != null) {
+            double value = numbers[index];
+            return isNil(value) ? null : (Object)value;
+        }
+        return objects[index];
+    }
+
+    public void set(int index, Object value)
+    {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            if (value == null) {
+                numbers[index] = NIL;
+                return;
+            }
+            generalize();
+        }
+        objects[index] = value;
+    }
+
+    void fill(Object value)
+    {
+        int length = length();
+        if (value == null || value instanceof Double) {
+            if (numbers == null) {
+                numbers = new double[length];
+                objects = null;
+            }
+            Arrays.fill(numbers, value == null ? NIL : (double)value);
+            return;
+        }
+
+        if (objects == null) {
+            objects = new Object[length];
+            numbers = null;
+        }
+        Arrays.fill(objects, value);
+    }
+
+    // как System.arraycopy; границы проверяет вызывающий
+    static void copy(LoxArray source, int sourceIndex, LoxArray target, int targetIndex, int count)
+    {
+        if (source.numbers != null && target.numbers != null) {
+            System.arraycopy(source.numbers, sourceIndex, target.numbers, targetIndex, count);
+            return;
+        }
+        if (source.objects != null && target.objects != null) {
+            System.arraycopy(source.objects, sourceIndex, target.objects, targetIndex, count);
+            return;
+        }
+
+        // представления разные, значит это разные массивы и перекрытия нет
+        for (int i = 0; i < count; ++i) {
+            target.set(targetIndex + i, source.get(sourceIndex + i));
+        }
+    }
+
+    //
+    // Числа по возрастанию (nil в конце) или строки лексикографически.
+    //
+    void sort()
+    {
+        if (numbers != null) {
+            Arrays.parallelSort(numbers);
+            return;
+        }
+
+        for (Object value : objects) {
+            if (!(value instanceof String)) {
+                throw new NativeError("Can only sort arrays of numbers or of strings.");
+            }
+        }
+        Arrays.parallelSort(objects, (left, right) -> ((String)left).compareTo((String)right));
+    }
+
+    private void generalize()
+    {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < numbers.length; ++i) {
+            objects[i] = isNil(numbers[i]) ? null : (Object)numbers[i];
+        }
+        numbers = null;
+    }
+
+    private static boolean isNil(double value)
+    {
+        return Double.doubleToRawLongBits(value) == NIL_BITS;
+    }
+
+    //
+    // Стандартная сериализация пишет double через doubleToLongBits, который
+    // сводит любой NaN к каноническому, и nil превратился бы в NaN. Поэтому
+    // числа пишутся сырыми битами в long[].
+    //
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        long[] bits = null;
+        if (numbers != null) {
+            bits = new long[numbers.length];
+            for (int i = 0; i < bits.length; ++i) {
+                bits[i] = Double.doubleToRawLongBits(numbers[i]);
+            }
+        }
+        out.writeObject(bits);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        long[] bits = (long[])in.readObject();
+        if ((bits == null) == (objects == null)) {
+            throw new InvalidObjectException("Array must hold either numbers or objects.");
+        }
+        if (bits != null) {
+            numbers = new double[bits.length];
+            for (int i = 0; i < bits.length; ++i) {
+                numbers[i] = Double.longBitsToDouble(bits[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < length(); ++i) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(format(get(i)));
+        }
+        return builder.append("]").toString();
+    }
+
+    // как print в интерпретаторе
+    private static String format(Object value)
+    {
+        if (value == null) {
+            return "nil";
+        }
+        String text = value.toString();
+        if (value instanceof Double && text.endsWith(".0")) {
+            return text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+
+    // ровно одно из полей не null
+    private transient double[] numbers;
+    private Object[] objects;
+}
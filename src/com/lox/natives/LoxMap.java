@@ -0,0 +1,257 @@
+package com.lox.natives;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+//
+// Ассоциативный массив Lox: открытая адресация с линейным пробированием,
+// удаление сдвигом назад (без надгробий).
+//
+// Ключи сравниваются как ==: числа и строки по значению, остальное
+// (экземпляры, функции, массивы) по ссылке; nil ключом быть не может.
+// Пока все ключи - числа, они хранятся в long[] как doubleToLongBits, без
+// упаковки в Double. Первый ключ другого типа переводит таблицу в Object[].
+//
+@SuppressWarnings("serial")
+public final class LoxMap implements Serializable {
+    // doubleToLongBits никогда не даёт такой NaN, поэтому это пустая ячейка
+    private static final long EMPTY = 0x7ff8_dead_0000_0001L;
+    private static final int INITIAL_CAPACITY = 8;
+
+    LoxMap()
+    {
+        numberKeys = new long[INITIAL_CAPACITY];
+        Arrays.fill(numberKeys, EMPTY);
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return find(key) >= 0;
+    }
+
+    public Object get(Object key)
+    {
+        int slot = find(key);
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    public void put(Object key, Object value)
+    {
+        if (numberKeys != null && !(key instanceof Double)) {
+            generalize();
+        }
+        if ((size + 1) * 4 > capacity() * 3) {
+            rehash(capacity() * 2);
+        }
+
+        int mask = capacity() - 1;
+        if (numberKeys != null) {
+            long bits = Double.doubleToLongBits((double)key);
+            int slot = hash(bits) & mask;
+            while (numberKeys[slot] != EMPTY) {
+                if (numberKeys[slot] == bits) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            numberKeys[slot] = bits;
+            values[slot] = value;
+        } else {
+            int slot = hash(key) & mask;
+            while (objectKeys[slot] != null) {
+                if (objectKeys[slot].equals(key)) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            objectKeys[slot] = key;
+            values[slot] = value;
+        }
+        ++size;
+    }
+
+    public boolean remove(Object key)
+    {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+
+        // сдвигаем назад элементы цепочки, которые могли пройти через slot
+        int mask = capacity() - 1;
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while (!isEmpty(next)) {
+            int home = homeSlot(next) & mask;
+            // элемент остаётся, если его домашняя ячейка циклически в (hole, next]
+            boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!stays) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        clear(hole);
+        --size;
+        return true;
+    }
+
+    public LoxArray keys()
+    {
+        LoxArray keys = LoxArray.ofLength(size);
+        int index = 0;
+        for (int slot = 0; slot < capacity(); ++slot) {
+            if (!isEmpty(slot)) {
+                keys.set(index++, key(slot));
+            }
+        }
+        return keys;
+    }
+
+    public LoxArray values()
+    {
+        LoxArray result = LoxArray.ofLength(size);
+        int index = 0;
+        for (int slot = 0; slot < capacity(); ++slot) {
+            if (!isEmpty(slot)) {
+                result.set(index++, values[slot]);
+            }
+        }
+        return result;
+    }
+
+    private int find(Object key)
+    {
+        int mask = capacity() - 1;
+        if (numberKeys != null) {
+            if (!(key instanceof Double)) {
+                return -1;
+            }
+            long bits = Double.doubleToLongBits((double)key);
+            for (int slot = hash(bits) & mask; numberKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (numberKeys[slot] == bits) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        for (int slot = hash(key) & mask; objectKeys[slot] != null; slot = (slot + 1) & mask) {
+            if (objectKeys[slot].equals(key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int capacity()
+    {
+        return values.length;
+    }
+
+    private boolean isEmpty(int slot)
+    {
+        return numberKeys != null ? numberKeys[slot] == EMPTY : objectKeys[slot] == null;
+    }
+
+    private Object key(int slot)
+    {
+        return numberKeys != null ? (Object)Double.longBitsToDouble(numberKeys[slot]) : objectKeys[slot];
+    }
+
+    private int homeSlot(int slot)
+    {
+        return numberKeys != null ? hash(numberKeys[slot]) : hash(objectKeys[slot]);
+    }
+
+    private void move(int from, int to)
+    {
+        if (numberKeys != null) {
+            numberKeys[to] = numberKeys[from];
+        } else {
+            objectKeys[to] = objectKeys[from];
+        }
+        values[to] = values[from];
+    }
+
+    private void clear(int slot)
+    {
+        if (numberKeys != null) {
+            numberKeys[slot] = EMPTY;
+        } else {
+            objectKeys[slot] = null;
+        }
+        values[slot] = null;
+    }
+
+    private void generalize()
+    {
+        long[] oldKeys = numberKeys;
+        Object[] oldValues = values;
+        numberKeys = null;
+        objectKeys = new Object[oldValues.length];
+        values = new Object[oldValues.length];
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; ++slot) {
+            if (oldKeys[slot] != EMPTY) {
+                put(Double.longBitsToDouble(oldKeys[slot]), oldValues[slot]);
+            }
+        }
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldNumberKeys = numberKeys;
+        Object[] oldObjectKeys = objectKeys;
+        Object[] oldValues = values;
+
+        values = new Object[capacity];
+        if (oldNumberKeys != null) {
+            numberKeys = new long[capacity];
+            Arrays.fill(numberKeys, EMPTY);
+        } else {
+            objectKeys = new Object[capacity];
+        }
+
+        size = 0;
+        for (int slot = 0; slot < oldValues.length; ++slot) {
+            if (oldNumberKeys != null && oldNumberKeys[slot] != EMPTY) {
+                put(Double.longBitsToDouble(oldNumberKeys[slot]), oldValues[slot]);
+            } else if (oldObjectKeys != null && oldObjectKeys[slot] != null) {
+                put(oldObjectKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private static int hash(long bits)
+    {
+        long h = bits * 0x9e37_79b9_7f4a_7c15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private static int hash(Object key)
+    {
+        int h = key.hashCode() * 0x9e37_79b9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<map " + size + ">";
+    }
+
+    // ровно одно из полей ключей не null
+    private long[] numberKeys;
+    private Object[] objectKeys;
+    private Object[] values;
+    private int size;
+}
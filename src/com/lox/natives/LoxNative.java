@@ -0,0 +1,18 @@
+package com.lox.natives;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+//
+// Помечает public static метод как нативную функцию lox.
+// Арность равна числу параметров метода, имя по умолчанию совпадает с именем метода.
+// Допустимые типы параметров: Object, double, boolean, String;
+// результата: те же и void (возвращает nil).
+//
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+    String name() default "";
+}
@@ -0,0 +1,28 @@
+package com.lox.natives;
+
+//
+// Доступ нативной функции к интерпретатору, который её вызвал.
+// Метод библиотеки получает его первым параметром (в арность не входит):
+//
+//     @LoxNative
+//     public static Object apply(LoxRuntime runtime, Object function, Object x)
+//
+// Runtime принадлежит потоку, из которого вызвана функция. Для другого
+// потока нужен fork() или spawn().
+//
+public interface LoxRuntime {
+    // вызов функции или класса Lox; NativeError, если это не функция или не та арность
+    Object call(Object function, Object... arguments);
+
+    // состояние выполнения для другого потока с теми же глобальными переменными
+    LoxRuntime fork();
+
+    // запуск функции без аргументов на виртуальном потоке; результат - future для await
+    Object spawn(Object function);
+
+    // ждёт завершения spawn; ошибка выполнения функции пробрасывается как есть
+    Object await(Object future);
+
+    // выполнение отменено (LoxContext.cancel) - долгие ожидания должны прерываться
+    boolean isCancelled();
+}
@@ -0,0 +1,58 @@
+package com.lox.natives;
+
+//
+// Ассоциативные массивы: map() создаёт пустой, get/set/length общие
+// с массивами. Обход - через keys(m) и values(m), которые возвращают
+// массивы в одном и том же порядке.
+//
+public final class MapLibrary {
+    private MapLibrary()
+    {
+    }
+
+    @LoxNative
+    public static Object map()
+    {
+        return new LoxMap();
+    }
+
+    @LoxNative
+    public static boolean has(Object map, Object key)
+    {
+        return map("has", map).containsKey(key("has", key));
+    }
+
+    @LoxNative
+    public static boolean remove(Object map, Object key)
+    {
+        return map("remove", map).remove(key("remove", key));
+    }
+
+    @LoxNative
+    public static Object keys(Object map)
+    {
+        return map("keys", map).keys();
+    }
+
+    @LoxNative
+    public static Object values(Object map)
+    {
+        return map("values", map).values();
+    }
+
+    static Object key(String name, Object key)
+    {
+        if (key == null) {
+            throw new NativeError("Argument 2 of '" + name + "' must not be nil.");
+        }
+        return key;
+    }
+
+    private static LoxMap map(String name, Object argument)
+    {
+        if (!(argument instanceof LoxMap)) {
+            throw new NativeError("Argument 1 of '" + name + "' must be a map.");
+        }
+        return (LoxMap)argument;
+    }
+}
@@ -0,0 +1,48 @@
+package com.lox.natives;
+
+//
+// Математика поверх java.lang.Math. Вызовы этих функций интерпретатор
+// распознаёт на месте вызова и выполняет напрямую на double (см. MathIntrinsic),
+// эти методы используются только при вызове через обычный путь.
+//
+public final class MathLibrary {
+    private MathLibrary()
+    {
+    }
+
+    @LoxNative
+    public static double sqrt(double x)
+    {
+        return Math.sqrt(x);
+    }
+
+    @LoxNative
+    public static double floor(double x)
+    {
+        return Math.floor(x);
+    }
+
+    @LoxNative
+    public static double abs(double x)
+    {
+        return Math.abs(x);
+    }
+
+    @LoxNative
+    public static double pow(double x, double y)
+    {
+        return Math.pow(x, y);
+    }
+
+    @LoxNative
+    public static double min(double x, double y)
+    {
+        return Math.min(x, y);
+    }
+
+    @LoxNative
+    public static double max(double x, double y)
+    {
+        return Math.max(x, y);
+    }
+}
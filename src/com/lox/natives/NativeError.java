@@ -0,0 +1,13 @@
+package com.lox.natives;
+
+//
+// Ошибка выполнения нативной функции; интерпретатор превращает её
+// в RuntimeError с номером строки места вызова.
+//
+@SuppressWarnings("serial")
+public class NativeError extends RuntimeException {
+    public NativeError(String message)
+    {
+        super(message);
+    }
+}
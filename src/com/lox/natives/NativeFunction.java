@@ -0,0 +1,12 @@
+package com.lox.natives;
+
+@FunctionalInterface
+public interface NativeFunction {
+    Object call(Object[] arguments);
+
+    // функциям с параметром LoxRuntime интерпретатор передаёт себя
+    default Object call(LoxRuntime runtime, Object[] arguments)
+    {
+        return call(arguments);
+    }
+}
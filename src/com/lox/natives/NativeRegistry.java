@@ -0,0 +1,198 @@
+package com.lox.natives;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// Таблица нативных функций, которые интерпретатор определяет в globals.
+//
+// Функции добавляются либо таблицей (define), либо классом-библиотекой
+// с методами, помеченными @LoxNative (register). Дополнительные библиотеки
+// подключаются без правки интерпретатора через системное свойство
+// lox.natives=com.shop.FooLibrary,com.shop.BarLibrary
+//
+public final class NativeRegistry {
+    public static final String LIBRARIES_PROPERTY = "lox.natives";
+
+    public static final class Entry {
+        Entry(String name, int arity, NativeFunction function, Method method)
+        {
+            this.name = name;
+            this.arity = arity;
+            this.function = function;
+            this.method = method;
+        }
+
+        public final String name;
+        public final int arity;
+        public final NativeFunction function;
+        // метод библиотеки, если функция зарегистрирована через @LoxNative
+        public final Method method;
+    }
+
+    public NativeRegistry()
+    {
+    }
+
+    //
+    // Стандартный набор: встроенные библиотеки плюс перечисленные в lox.natives.
+    //
+    public static NativeRegistry standard()
+    {
+        NativeRegistry registry = new NativeRegistry();
+        registry.register(CoreLibrary.class);
+        registry.register(MathLibrary.class);
+        registry.register(ConcurrencyLibrary.class);
+        registry.register(ArrayLibrary.class);
+        registry.register(MapLibrary.class);
+        registry.register(ParallelLibrary.class);
+
+        String libraries = System.getProperty(LIBRARIES_PROPERTY, "");
+        for (String className : libraries.split(",")) {
+            if (className.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                registry.register(Class.forName(className.trim()));
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Native library '" + className.trim() + "' not found.", e);
+            }
+        }
+
+        return registry;
+    }
+
+    public NativeRegistry define(String name, int arity, NativeFunction function)
+    {
+        if (arity < 0) {
+            throw new IllegalArgumentException("Native '" + name + "' has negative arity.");
+        }
+        return define(new Entry(name, arity, function, null));
+    }
+
+    private NativeRegistry define(Entry entry)
+    {
+        entries.put(entry.name, entry);
+        return this;
+    }
+
+    public NativeRegistry register(Class<?> library)
+    {
+        for (Method method : library.getMethods()) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            if (annotation == null) {
+                continue;
+            }
+
+            String name = annotation.name().isEmpty() ? method.getName() : annotation.name();
+            if (!Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalArgumentException("Native '" + name + "' must be a static method.");
+            }
+            int arity = method.getParameterCount() - (needsRuntime(method) ? 1 : 0);
+            define(new Entry(name, arity, adapt(name, method), method));
+        }
+        return this;
+    }
+
+    public List<Entry> entries()
+    {
+        return Collections.unmodifiableList(new ArrayList<>(entries.values()));
+    }
+
+    private static boolean needsRuntime(Method method)
+    {
+        return method.getParameterCount() > 0 && method.getParameterTypes()[0] == LoxRuntime.class;
+    }
+
+    private static NativeFunction adapt(String name, Method method)
+    {
+        Class<?>[] parameters = method.getParameterTypes();
+        // LoxRuntime передаётся первым параметром и не является аргументом Lox
+        int first = needsRuntime(method) ? 1 : 0;
+        for (int i = first; i < parameters.length; ++i) {
+            if (!isSupported(parameters[i])) {
+                throw new IllegalArgumentException("Native '" + name + "' has unsupported parameter type " + parameters[i].getName() + ".");
+            }
+        }
+        if (method.getReturnType() != void.class && !isSupported(method.getReturnType())) {
+            throw new IllegalArgumentException("Native '" + name + "' has unsupported return type " + method.getReturnType().getName() + ".");
+        }
+
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method)
+                .asSpreader(Object[].class, parameters.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Native '" + name + "' is not accessible.", e);
+        }
+
+        if (first == 0) {
+            return arguments -> {
+                for (int i = 0; i < parameters.length; ++i) {
+                    ensureType(name, i, parameters[i], arguments[i]);
+                }
+                return invoke(name, handle, arguments);
+            };
+        }
+
+        return new NativeFunction() {
+            @Override
+            public Object call(Object[] arguments)
+            {
+                throw new NativeError("Native '" + name + "' must be called by the interpreter.");
+            }
+
+            @Override
+            public Object call(LoxRuntime runtime, Object[] arguments)
+            {
+                Object[] values = new Object[arguments.length + 1];
+                values[0] = runtime;
+                for (int i = 0; i < arguments.length; ++i) {
+                    ensureType(name, i, parameters[i + 1], arguments[i]);
+                    values[i + 1] = arguments[i];
+                }
+                return invoke(name, handle, values);
+            }
+        };
+    }
+
+    private static Object invoke(String name, MethodHandle handle, Object[] arguments)
+    {
+        try {
+            return (Object)handle.invokeExact(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new NativeError("Native '" + name + "' failed: " + e.getMessage());
+        }
+    }
+
+    private static boolean isSupported(Class<?> type)
+    {
+        return type == Object.class || type == double.class || type == boolean.class || type == String.class;
+    }
+
+    private static void ensureType(String name, int index, Class<?> type, Object argument)
+    {
+        if (type == double.class && !(argument instanceof Double)) {
+            throw new NativeError("Argument " + (index + 1) + " of '" + name + "' must be a number.");
+        }
+        if (type == boolean.class && !(argument instanceof Boolean)) {
+            throw new NativeError("Argument " + (index + 1) + " of '" + name + "' must be a boolean.");
+        }
+        if (type == String.class && !(argument instanceof String)) {
+            throw new NativeError("Argument " + (index + 1) + " of '" + name + "' must be a string.");
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+}
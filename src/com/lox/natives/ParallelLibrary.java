@@ -0,0 +1,128 @@
+package com.lox.natives;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//
+// Параллельные map и reduce над массивами на ForkJoinPool.commonPool().
+//
+// Массив делится на части по числу потоков пула; каждая часть выполняется
+// со своим состоянием интерпретатора (LoxRuntime.fork), глобальные переменные
+// общие. Функция не должна менять общие данные: порядок вызовов не определён.
+// Для parallelReduce функция должна быть ассоциативной, а identity - её
+// нейтральным элементом.
+//
+public final class ParallelLibrary {
+    // частей на поток пула, чтобы неравномерная работа распределялась
+    private static final int SPLITS_PER_THREAD = 4;
+
+    private ParallelLibrary()
+    {
+    }
+
+    @LoxNative
+    public static Object parallelMap(LoxRuntime runtime, Object array, Object function)
+    {
+        LoxArray source = ArrayLibrary.array("parallelMap", array);
+        // части пишут в свои индексы общего Object[]; LoxArray.set из
+        // нескольких потоков небезопасен (смена представления)
+        Object[] result = new Object[source.length()];
+        ForkJoinPool.commonPool().invoke(new MapTask(runtime, source, result, function, 0, source.length(), threshold(source)));
+        return LoxArray.of(result);
+    }
+
+    @LoxNative
+    public static Object parallelReduce(LoxRuntime runtime, Object array, Object function, Object identity)
+    {
+        LoxArray source = ArrayLibrary.array("parallelReduce", array);
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(runtime, source, function, identity, 0, source.length(), threshold(source)));
+    }
+
+    private static int threshold(LoxArray array)
+    {
+        int parts = ForkJoinPool.commonPool().getParallelism() * SPLITS_PER_THREAD;
+        return Math.max(1, array.length() / parts);
+    }
+
+    @SuppressWarnings("serial")
+    private static final class MapTask extends RecursiveTask<Void> {
+        MapTask(LoxRuntime runtime, LoxArray source, Object[] result, Object function, int from, int to, int threshold)
+        {
+            this.runtime = runtime;
+            this.source = source;
+            this.result = result;
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Void compute()
+        {
+            if (to - from <= threshold) {
+                LoxRuntime worker = runtime.fork();
+                for (int i = from; i < to; ++i) {
+                    result[i] = worker.call(function, source.get(i));
+                }
+                return null;
+            }
+
+            int middle = (from + to) >>> 1;
+            MapTask left = new MapTask(runtime, source, result, function, from, middle, threshold);
+            left.fork();
+            new MapTask(runtime, source, result, function, middle, to, threshold).compute();
+            left.join();
+            return null;
+        }
+
+        private final LoxRuntime runtime;
+        private final LoxArray source;
+        private final Object[] result;
+        private final Object function;
+        private final int from;
+        private final int to;
+        private final int threshold;
+    }
+
+    @SuppressWarnings("serial")
+    private static final class ReduceTask extends RecursiveTask<Object> {
+        ReduceTask(LoxRuntime runtime, LoxArray source, Object function, Object identity, int from, int to, int threshold)
+        {
+            this.runtime = runtime;
+            this.source = source;
+            this.function = function;
+            this.identity = identity;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Object compute()
+        {
+            if (to - from <= threshold) {
+                LoxRuntime worker = runtime.fork();
+                Object accumulator = identity;
+                for (int i = from; i < to; ++i) {
+                    accumulator = worker.call(function, accumulator, source.get(i));
+                }
+                return accumulator;
+            }
+
+            int middle = (from + to) >>> 1;
+            ReduceTask left = new ReduceTask(runtime, source, function, identity, from, middle, threshold);
+            left.fork();
+            Object right = new ReduceTask(runtime, source, function, identity, middle, to, threshold).compute();
+            return runtime.fork().call(function, left.join(), right);
+        }
+
+        private final LoxRuntime runtime;
+        private final LoxArray source;
+        private final Object function;
+        private final Object identity;
+        private final int from;
+        private final int to;
+        private final int threshold;
+    }
+}
@@ -15,31 +15,39 @@ public class GenerateAst {
 
         String outputDir = args[0];
         List<String> types = Arrays.asList(
-            "Assign     : Token name, Expr value",
+            "Assign     : Token name, Expr value ; int depth = -1, int slot = -1",
             "Binary     : Expr left, Token operator, Expr right",
-            "Call       : Expr callee, Token paren, List<Expr> arguments",
+            "Call       : Expr callee, Token paren, List<Expr> arguments ; int site = -1",
+            "CompareLocalConst : Expr.Binary comparison, Token name, int depth, double constant",
             "Get        : Expr object, Token name",
+            "GetThisField : Expr.Get get, int depth",
             "Grouping   : List<Expr> expressions",
+            "IncrementLocal : Expr.Assign assignment, double delta",
+            "InvokeMethod : Expr.Call call",
             "Literal    : Object value",
             "Logical    : Expr left, Token operator, Expr right",
+            "Probe      : Expr expression, ProbeSite site",
             "Set        : Expr object, Token name, Expr value",
-            "Super      : Token keyword, Token method",
-            "This       : Token keyword",
+            "Super      : Token keyword, Token method ; int depth = -1",
+            "This       : Token keyword ; int depth = -1",
             "Unary      : Token operator, Expr right",
-            "Variable   : Token name"
+            "Variable   : Token name ; int depth = -1, int slot = -1, boolean constant = false"
         );
         defineAst(outputDir, "Expr", types);
 
         types = Arrays.asList(
-            "Block      : List<Stmt> statements",
-            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Block      : List<Stmt> statements ; boolean scoped = true",
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods ; boolean captured = false",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> parameters, List<Stmt> body",
+            "For        : Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body ; String counter = null, double stride = 0, TokenType compare = null, boolean scoped = true",
+            "Function   : Token name, List<Token> parameters, List<Stmt> body ; boolean captured = false, Captures captures = Captures.NONE",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "Import     : Token keyword, Token path ; String module = null",
             "Print      : Expr expression",
+            "Probe      : Stmt statement, ProbeSite site",
             "Return     : Token keyword, Expr value",
-            "Var        : Token name, Expr initializer",
-            "While      : Expr condition, Stmt body"
+            "Var        : Token name, Expr initializer ; boolean captured = false",
+            "While      : Token keyword, Expr condition, Stmt body"
         );
         defineAst(outputDir, "Stmt", types);
     }
@@ -51,9 +59,12 @@ public class GenerateAst {
 
         writer.println("package com.lox;");
         writer.println("");
+        writer.println("import java.io.Serializable;");
         writer.println("import java.util.List;");
         writer.println("");
-        writer.println("abstract class " + baseName + " {");
+        // дерево сериализуется вместе с функциями в снимке (см. Snapshot)
+        writer.println("@SuppressWarnings(\"serial\")");
+        writer.println("abstract class " + baseName + " implements Serializable {");
 
         defineVisitor(writer, baseName, types);
 
@@ -61,14 +72,20 @@ public class GenerateAst {
         for (String type : types) {
             String[] parts = type.split(":");
             String className = parts[0].trim();
-            String fields = parts[1].trim();
-            defineType(writer, baseName, className, fields);
+            // после ';' идут изменяемые поля, которые заполняет Resolver
+            String[] fields = parts[1].split(";");
+            String resolved = fields.length > 1 ? fields[1].trim() : "";
+            defineType(writer, baseName, className, fields[0].trim(), resolved);
         }
 
         // accept() метод
         writer.println("");
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
 
+        // replaceChildren() метод
+        writer.println("");
+        writer.println("    abstract void replaceChildren(NodeRewriter rewriter);");
+
         writer.println("}");
         writer.close();
     }
@@ -85,7 +102,7 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList)
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String resolvedList)
     {
         writer.println("");
         writer.println("    static class " + className + " extends " + baseName + " {");
@@ -101,10 +118,19 @@ public class GenerateAst {
         // Конструктор (end)
         writer.println("        }");
 
-        // Поля
+        // Поля; дочерние Expr и Stmt не final, их подменяет Instrumentation
         writer.println("");
         for (String field : fields) {
-            writer.println("        final " + field + ";");
+            String type = field.split(" ")[0];
+            boolean replaceable = type.equals("Expr") || type.equals("Stmt");
+            writer.println("        " + (replaceable ? "" : "final ") + field + ";");
+        }
+        if (!resolvedList.isEmpty()) {
+            writer.println("");
+            writer.println("        // заполняет Resolver");
+            for (String field : resolvedList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
         }
 
         // Реализация метода accept()
@@ -113,6 +139,26 @@ public class GenerateAst {
         writer.println("            return visitor.visit" + className + baseName + "(this);");
         writer.println("        }");
 
+        // Реализация метода replaceChildren()
+        writer.println("");
+        writer.println("        void replaceChildren(NodeRewriter rewriter) {");
+        for (String field : fields) {
+            String type = field.split(" ")[0];
+            String name = field.split(" ")[1];
+            if (type.equals("Expr") || type.equals("Stmt")) {
+                writer.println("            if (" + name + " != null) " + name + " = rewriter.rewrite(" + name + ");");
+            } else if (type.equals("List<Expr>") || type.equals("List<Stmt>")) {
+                writer.println("            for (int i = 0; i < " + name + ".size(); ++i) " + name + ".set(i, rewriter.rewrite(" + name + ".get(i)));");
+            } else if (type.startsWith("Expr.") || type.startsWith("Stmt.")) {
+                // узел конкретного типа подменить нельзя, но его детей можно
+                writer.println("            if (" + name + " != null) " + name + ".replaceChildren(rewriter);");
+            } else if (type.startsWith("List<Expr.") || type.startsWith("List<Stmt.")) {
+                String element = type.substring("List<".length(), type.length() - 1);
+                writer.println("            for (" + element + " node : " + name + ") node.replaceChildren(rewriter);");
+            }
+        }
+        writer.println("        }");
+
         writer.println("    }");
     }
 }